@@ -0,0 +1,342 @@
+package exter.tsl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses TSL in the compact binary TSLB encoding written by TSLBinaryWriter.
+ * Can be passed to TSLObject.loadFromReader in place of a TSLReader.
+ * Values are length prefixed, so there is no escaping or whitespace to scan,
+ * and every value name is decoded and validated once per document.
+ */
+public class TSLBinaryReader extends TSLReader
+{
+  // TSLB header.
+  static final byte[] MAGIC = { 'T', 'S', 'L', 'B' };
+  static final byte VERSION = 1;
+
+  // Value tags.
+  static final int TAG_STRING = 1;
+  static final int TAG_OBJECT = 2;
+  static final int TAG_END = 3;
+
+  // Default maximum length of a string or name.
+  static final int DEFAULT_MAX_STRING_LENGTH = 64 * 1024 * 1024;
+
+  // Name dictionary of the current document.
+  private String[] names;
+  private int names_count;
+
+  private boolean header_read;
+
+  // Maximum length of a string or name, in UTF-8 bytes.
+  private int max_string_length;
+
+  // Copy of a string that spans input blocks.
+  private byte[] bytes;
+
+  public TSLBinaryReader(InputStream is)
+  {
+    super(is);
+    names = new String[64];
+    max_string_length = DEFAULT_MAX_STRING_LENGTH;
+    resetBinaryState();
+  }
+
+  /**
+   * Create a reader that parses a ByteBuffer from its position to its limit.
+   * @param input Input buffer.
+   */
+  public TSLBinaryReader(ByteBuffer input)
+  {
+    super(input);
+    names = new String[64];
+    max_string_length = DEFAULT_MAX_STRING_LENGTH;
+    resetBinaryState();
+  }
+
+  /**
+   * Set the maximum length of the strings and names in the input.
+   * A longer length prefix is rejected before any memory is allocated for the string.
+   * @param length Maximum length in UTF-8 bytes, 64 MB by default.
+   */
+  public void setMaxStringLength(int length)
+  {
+    if(length < 0)
+    {
+      throw new IllegalArgumentException("Invalid maximum string length: " + length + ".");
+    }
+    max_string_length = length;
+  }
+
+  private void resetBinaryState()
+  {
+    int i;
+    for(i = 0; i < names_count; i++)
+    {
+      names[i] = null;
+    }
+    names_count = 0;
+    header_read = false;
+  }
+
+  /**
+   * Reset the reader to parse a new input stream.
+   * The name dictionary is cleared.
+   * @param is Input stream.
+   */
+  @Override
+  public void reset(InputStream is)
+  {
+    super.reset(is);
+    resetBinaryState();
+  }
+
+  private InvalidTSLException endOfStream()
+  {
+    state = State.END;
+    return new InvalidTSLException("Unexpected end of stream.");
+  }
+
+  private int readByte() throws InvalidTSLException, IOException
+  {
+    if(buffer_pos == buffer_end && !fill())
+    {
+      throw endOfStream();
+    }
+    return buffer[buffer_pos++] & 0xFF;
+  }
+
+  private int readVarint() throws InvalidTSLException, IOException
+  {
+    int value = 0;
+    int shift;
+    for(shift = 0; shift < 32; shift += 7)
+    {
+      int b = readByte();
+      value |= (b & 0x7F) << shift;
+      if((b & 0x80) == 0)
+      {
+        if(value < 0 || (shift == 28 && b > 0x07))
+        {
+          break;
+        }
+        return value;
+      }
+    }
+    state = State.END;
+    throw new InvalidTSLException("Invalid TSLB length.");
+  }
+
+  private void readHeader() throws InvalidTSLException, IOException
+  {
+    int i;
+    for(i = 0; i < MAGIC.length; i++)
+    {
+      if(readByte() != MAGIC[i])
+      {
+        state = State.END;
+        throw new InvalidTSLException("Not a TSLB stream.");
+      }
+    }
+    int version = readByte();
+    if(version != VERSION)
+    {
+      state = State.END;
+      throw new InvalidTSLException("Unsupported TSLB version: " + version + ".");
+    }
+    header_read = true;
+  }
+
+  /**
+   * Read length prefixed UTF-8 bytes into the internal string builder.
+   * The length is checked against the maximum and the remaining input when it's known,
+   * and memory is only allocated for bytes that have been read.
+   */
+  private void readUTF8() throws InvalidTSLException, IOException
+  {
+    int length = readVarint();
+    if(length > max_string_length)
+    {
+      state = State.END;
+      throw new InvalidTSLException("TSLB string too long: " + length + " bytes.");
+    }
+    long remaining = getRemaining();
+    if(remaining >= 0 && length > remaining)
+    {
+      throw endOfStream();
+    }
+    if(buffer_end - buffer_pos >= length)
+    {
+      ensureBuilder(length);
+      builder_length = TSLUtil.decodeUTF8(buffer, buffer_pos, length, builder, 0);
+      buffer_pos += length;
+      return;
+    }
+    // The bytes span input blocks, copy them first.
+    int copied = 0;
+    while(copied < length)
+    {
+      if(buffer_pos == buffer_end && !fill())
+      {
+        throw endOfStream();
+      }
+      int n = Math.min(buffer_end - buffer_pos, length - copied);
+      if(bytes == null || bytes.length < copied + n)
+      {
+        // Grow the copy geometrically as the bytes arrive, up to the string's length.
+        byte[] nbytes = new byte[Math.min(Math.max(copied + n, bytes == null ? 1024 : bytes.length * 2), length)];
+        if(copied > 0)
+        {
+          System.arraycopy(bytes, 0, nbytes, 0, copied);
+        }
+        bytes = nbytes;
+      }
+      System.arraycopy(buffer, buffer_pos, bytes, copied, n);
+      buffer_pos += n;
+      copied += n;
+    }
+    ensureBuilder(length);
+    builder_length = TSLUtil.decodeUTF8(bytes, 0, length, builder, 0);
+  }
+
+  private void skipBytes(int length) throws InvalidTSLException, IOException
+  {
+    while(length > 0)
+    {
+      if(buffer_pos == buffer_end && !fill())
+      {
+        throw endOfStream();
+      }
+      int n = Math.min(buffer_end - buffer_pos, length);
+      buffer_pos += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Read a name reference, adding new names to the dictionary.
+   */
+  private String readName() throws InvalidTSLException, IOException
+  {
+    int id = readVarint();
+    if(id > 0)
+    {
+      if(id > names_count)
+      {
+        state = State.END;
+        throw new InvalidTSLException("Invalid TSLB name reference: " + id + ".");
+      }
+      return names[id - 1];
+    }
+    readUTF8();
+    String name = makeName();
+    if(!TSLUtil.isValidValueName(name))
+    {
+      state = State.END;
+      throw new InvalidTSLException("Invalid TSL Object name: '" + name + "'.");
+    }
+    if(names_count == names.length)
+    {
+      String[] nnames = new String[names.length * 2];
+      System.arraycopy(names, 0, nnames, 0, names_count);
+      names = nnames;
+    }
+    names[names_count++] = name;
+    builder_length = 0;
+    return name;
+  }
+
+  /**
+   * Skip an object.
+   * The reader's state is set to {@link State.ENDOBJECT} corresponding the skipped object.
+   * Does nothing if the state is not {@link State.OBJECT}.
+   * String values are skipped using their length without being decoded.
+   * @throws InvalidTSLException if a TSL parsing error occurs.
+   */
+  @Override
+  public void skipObject() throws InvalidTSLException, IOException
+  {
+    if(state != State.OBJECT)
+    {
+      return;
+    }
+    builder_length = 0;
+    string = null;
+    has_string = false;
+    int depth = 1;
+    while(depth > 0)
+    {
+      switch(readByte())
+      {
+        case TAG_STRING:
+          readName();
+          skipBytes(readVarint());
+          break;
+        case TAG_OBJECT:
+          readName();
+          depth++;
+          break;
+        case TAG_END:
+          depth--;
+          break;
+        default:
+          state = State.END;
+          throw new InvalidTSLException("Invalid TSLB tag.");
+      }
+    }
+    level--;
+    state = State.ENDOBJECT;
+  }
+
+  /**
+   * Advance the reader to next value.
+   * @throws InvalidTSLException if a TSL parsing error occurs.
+   */
+  @Override
+  public void moveNext() throws InvalidTSLException, IOException
+  {
+    if(level == 0 && (state == State.ENDOBJECT || state == State.STRING))
+    {
+      state = State.END;
+    }
+    if(state == State.END)
+    {
+      return;
+    }
+    builder_length = 0;
+    string = null;
+    has_string = false;
+    if(!header_read)
+    {
+      readHeader();
+    }
+    switch(readByte())
+    {
+      case TAG_STRING:
+        name = readName();
+        readUTF8();
+        has_string = true;
+        state = State.STRING;
+        break;
+      case TAG_OBJECT:
+        name = readName();
+        level++;
+        state = State.OBJECT;
+        break;
+      case TAG_END:
+        if(level == 0)
+        {
+          state = State.END;
+          throw new InvalidTSLException("Unexpected end of TSL Object.");
+        }
+        level--;
+        state = State.ENDOBJECT;
+        break;
+      default:
+        state = State.END;
+        throw new InvalidTSLException("Invalid TSLB tag.");
+    }
+  }
+}
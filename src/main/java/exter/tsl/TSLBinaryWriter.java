@@ -0,0 +1,221 @@
+package exter.tsl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes TSL in the compact binary TSLB encoding, read by TSLBinaryReader.
+ * Can be passed to TSLObject.write in place of a TSLWriter, formatters have no effect.
+ * <p>
+ * Encoding: the magic bytes "TSLB" and a version byte, followed by the root value.
+ * Each value starts with a tag byte and a name reference:
+ * <ul>
+ * <li>{@link TSLBinaryReader#TAG_STRING}: name, varint byte length, UTF-8 bytes of the value.</li>
+ * <li>{@link TSLBinaryReader#TAG_OBJECT}: name, then the object's values.</li>
+ * <li>{@link TSLBinaryReader#TAG_END}: end of the current object, no name.</li>
+ * </ul>
+ * A name reference is a varint: 0 defines a new name, followed by its varint byte length and UTF-8 bytes,
+ * any other value n refers to the n-th name defined in the document.
+ * Varints are unsigned LEB128, 7 bits per byte, least significant group first.
+ */
+public class TSLBinaryWriter extends TSLWriter
+{
+  // Name dictionary of the current document.
+  private Map<String,Integer> names;
+
+  private int level;
+  private boolean first_element;
+  private boolean header_written;
+  private boolean closed;
+
+  public TSLBinaryWriter(OutputStream os)
+  {
+    super(os);
+    names = new HashMap<String,Integer>();
+    resetBinaryState();
+  }
+
+  /**
+   * Create a writer that writes to a channel.
+   * @param channel Channel to write to.
+   */
+  public TSLBinaryWriter(WritableByteChannel channel)
+  {
+    super(channel);
+    names = new HashMap<String,Integer>();
+    resetBinaryState();
+  }
+
+  /**
+   * Create a writer that writes directly to a ByteBuffer.
+   * @param target Buffer to write to.
+   */
+  public TSLBinaryWriter(ByteBuffer target)
+  {
+    super(target);
+    names = new HashMap<String,Integer>();
+    resetBinaryState();
+  }
+
+  private void resetBinaryState()
+  {
+    names.clear();
+    level = 0;
+    first_element = false;
+    header_written = false;
+    closed = false;
+  }
+
+  /**
+   * Reset the writer to write a new document to an output stream.
+   * The name dictionary is cleared.
+   * @param os Output stream.
+   */
+  @Override
+  public void reset(OutputStream os)
+  {
+    super.reset(os);
+    resetBinaryState();
+  }
+
+  private void writeVarint(int value) throws IOException
+  {
+    reserve(5);
+    while((value & ~0x7F) != 0)
+    {
+      buffer[buffer_length++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[buffer_length++] = (byte)value;
+  }
+
+  private void writeUTF8(String str) throws IOException
+  {
+    writeVarint(TSLUtil.getUTF8Length(str));
+    writeChars(str, false);
+  }
+
+  /**
+   * Check a value's name before writing anything.
+   * Names are validated only the first time they are written in a document.
+   */
+  private void checkName(String name)
+  {
+    if(name == null || !names.containsKey(name))
+    {
+      TSLUtil.validateValueName(name);
+    }
+  }
+
+  /**
+   * Write a name reference, adding the name to the dictionary if it's new.
+   */
+  private void writeName(String name) throws IOException
+  {
+    Integer id = names.get(name);
+    if(id != null)
+    {
+      writeVarint(id.intValue());
+      return;
+    }
+    names.put(name, Integer.valueOf(names.size() + 1));
+    writeVarint(0);
+    writeUTF8(name);
+  }
+
+  private void writeTag(int tag) throws IOException
+  {
+    if(closed)
+    {
+      throw new IllegalStateException(ERROR_ROOTCLOSED);
+    }
+    if(!header_written)
+    {
+      reserve(TSLBinaryReader.MAGIC.length + 1);
+      int i;
+      for(i = 0; i < TSLBinaryReader.MAGIC.length; i++)
+      {
+        buffer[buffer_length++] = TSLBinaryReader.MAGIC[i];
+      }
+      buffer[buffer_length++] = TSLBinaryReader.VERSION;
+      header_written = true;
+    }
+    writeByte(tag);
+  }
+
+  @Override
+  public TSLWriter putString(String name,String value) throws IOException
+  {
+    if(value == null)
+    {
+      return this;
+    }
+    checkName(name);
+    writeTag(TSLBinaryReader.TAG_STRING);
+    writeName(name);
+    writeUTF8(value);
+
+    first_element = false;
+    if(level == 0)
+    {
+      closed = true;
+      flushStream();
+    }
+    return this;
+  }
+
+  @Override
+  TSLWriter putUTF8String(String name, byte[] bytes, int offset, int length) throws IOException
+  {
+    checkName(name);
+    writeTag(TSLBinaryReader.TAG_STRING);
+    writeName(name);
+    writeVarint(length);
+    writeBytes(bytes, offset, length);
+
+    first_element = false;
+    if(level == 0)
+    {
+      closed = true;
+      flushStream();
+    }
+    return this;
+  }
+
+  @Override
+  public TSLWriter startObject(String name) throws IOException
+  {
+    checkName(name);
+    writeTag(TSLBinaryReader.TAG_OBJECT);
+    writeName(name);
+    first_element = true;
+    level++;
+    return this;
+  }
+
+  @Override
+  public TSLWriter endObject() throws IOException
+  {
+    if(level == 0 || closed)
+    {
+      throw new IllegalStateException(ERROR_ROOTCLOSED);
+    }
+    if(first_element)
+    {
+      throw new IllegalStateException("Cannot close an empty TSL Object.");
+    }
+    level--;
+    writeByte(TSLBinaryReader.TAG_END);
+    if(level == 0)
+    {
+      flushStream();
+      closed = true;
+    }
+    first_element = false;
+    return this;
+  }
+}
@@ -0,0 +1,227 @@
+package exter.tsl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses a block compressed stream written by TSLBlockWriter as plain TSL text,
+ * to be parsed with a TSLReader.
+ * To decompress and parse the blocks in parallel use
+ * {@link TSLObject#parseBlocks(InputStream, java.util.concurrent.ExecutorService)} instead.
+ */
+public class TSLBlockInputStream extends InputStream
+{
+  private final DataInputStream is;
+  private final Inflater inflater;
+
+  private String root_name;
+  // Uncompressed length of the last read block.
+  private int block_length;
+  private boolean blocks_done;
+  private boolean first_block;
+
+  // Text being returned.
+  private byte[] current;
+  private int current_pos;
+  private int current_end;
+
+  public TSLBlockInputStream(InputStream is)
+  {
+    this.is = new DataInputStream(is);
+    inflater = new Inflater();
+    root_name = null;
+    blocks_done = false;
+    first_block = true;
+    current = null;
+    current_pos = 0;
+    current_end = 0;
+  }
+
+  /**
+   * Read the stream header.
+   * @return Name of the root object.
+   */
+  String readHeader() throws IOException
+  {
+    if(root_name == null)
+    {
+      int i;
+      for(i = 0; i < TSLBlockWriter.MAGIC.length; i++)
+      {
+        if(is.readByte() != TSLBlockWriter.MAGIC[i])
+        {
+          throw new ZipException("Not a TSL block stream.");
+        }
+      }
+      int version = is.readByte();
+      if(version != TSLBlockWriter.VERSION)
+      {
+        throw new ZipException("Unsupported TSL block stream version: " + version + ".");
+      }
+      root_name = is.readUTF();
+    }
+    return root_name;
+  }
+
+  // Maximum deflated length of a block of a given length, with room for deflate's worst case expansion.
+  static private int maxDeflatedLength(int length)
+  {
+    return length + (length >> 3) + 64;
+  }
+
+  /**
+   * Read the next compressed block.
+   * The header must have been read.
+   * @return Deflated data, or null after the last block.
+   * @throws ZipException if the block's lengths are invalid.
+   */
+  byte[] readBlock() throws IOException
+  {
+    if(blocks_done)
+    {
+      return null;
+    }
+    block_length = is.readInt();
+    if(block_length == 0)
+    {
+      blocks_done = true;
+      return null;
+    }
+    int length = is.readInt();
+    if(block_length < 0 || block_length > TSLBlockWriter.MAX_BLOCK_LENGTH || length < 0 || length > maxDeflatedLength(block_length))
+    {
+      throw new ZipException("Invalid TSL block length.");
+    }
+    byte[] data = new byte[length];
+    is.readFully(data);
+    return data;
+  }
+
+  /**
+   * Get the uncompressed length of the last block returned by {@link #readBlock()}.
+   */
+  int getBlockLength()
+  {
+    return block_length;
+  }
+
+  /**
+   * Decompress a block.
+   * @param inflater Decompressor to use, reset before decompressing.
+   * @param data Deflated data.
+   * @param length Uncompressed length of the block.
+   * @param offset Position of the uncompressed text in the result.
+   * @param extra Number of bytes to leave after the uncompressed text.
+   * @return Uncompressed text, at [offset, offset + length).
+   * @throws ZipException if the block is corrupt.
+   */
+  static byte[] inflate(Inflater inflater, byte[] data, int length, int offset, int extra) throws IOException
+  {
+    if(length < 0 || length > Integer.MAX_VALUE - offset - extra)
+    {
+      throw new ZipException("Invalid TSL block length.");
+    }
+    byte[] result = new byte[offset + length + extra];
+    inflater.reset();
+    inflater.setInput(data);
+    try
+    {
+      int n = 0;
+      while(n < length)
+      {
+        int r = inflater.inflate(result, offset + n, length - n);
+        if(r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+        {
+          break;
+        }
+        n += r;
+      }
+      if(n != length || !inflater.finished())
+      {
+        throw new ZipException("Corrupt TSL block.");
+      }
+    } catch(DataFormatException e)
+    {
+      throw new ZipException("Corrupt TSL block: " + e.getMessage());
+    }
+    return result;
+  }
+
+  /**
+   * Load the next part of the TSL text.
+   * @return false at the end of the text.
+   */
+  private boolean next() throws IOException
+  {
+    if(current == null)
+    {
+      // Start of the root object.
+      current = (readHeader() + " [").getBytes("UTF-8");
+      current_pos = 0;
+      current_end = current.length;
+      return true;
+    }
+    if(blocks_done)
+    {
+      return false;
+    }
+    byte[] data = readBlock();
+    if(data == null)
+    {
+      current = new byte[] { ']' };
+    } else
+    {
+      // Separate the block's values from the previous block.
+      current = inflate(inflater, data, block_length, 1, 0);
+      current[0] = (byte)(first_block ? ' ' : ',');
+      first_block = false;
+    }
+    current_pos = 0;
+    current_end = current.length;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    while(current == null || current_pos == current_end)
+    {
+      if(!next())
+      {
+        return -1;
+      }
+    }
+    return current[current_pos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    if(len == 0)
+    {
+      return 0;
+    }
+    while(current == null || current_pos == current_end)
+    {
+      if(!next())
+      {
+        return -1;
+      }
+    }
+    int n = Math.min(len, current_end - current_pos);
+    System.arraycopy(current, current_pos, b, off, n);
+    current_pos += n;
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    inflater.end();
+    is.close();
+  }
+}
@@ -0,0 +1,194 @@
+package exter.tsl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a TSL Object as a block compressed stream, read by TSLBlockInputStream
+ * and {@link TSLObject#parseBlocks(java.io.InputStream, java.util.concurrent.ExecutorService)}.
+ * The root object's values are written as TSL text in blocks of whole values,
+ * and each block is compressed independently, so blocks can be decompressed and parsed in parallel.
+ * <p>
+ * Stream layout: the magic bytes "TSLZ", a version byte and the root object's name,
+ * followed by the blocks. Each block is the int length of its uncompressed TSL text,
+ * the int length of its deflated data and the deflated data.
+ * The uncompressed text is a sequence of the root object's values separated by ','.
+ * The stream ends with a block with an uncompressed length of 0.
+ * Blocks are at most {@link #MAX_BLOCK_LENGTH} bytes uncompressed, a root value that doesn't fit can't be written.
+ */
+public class TSLBlockWriter
+{
+  static final byte[] MAGIC = { 'T', 'S', 'L', 'Z' };
+  static final byte VERSION = 1;
+
+  // Default uncompressed block size.
+  static public final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  // Maximum uncompressed length of a block, longer blocks are rejected as corrupt when read.
+  static public final int MAX_BLOCK_LENGTH = 256 * 1024 * 1024;
+
+  /**
+   * Byte array output stream that exposes its array.
+   */
+  static private class BlockBuffer extends ByteArrayOutputStream
+  {
+    BlockBuffer(int size)
+    {
+      super(size);
+    }
+
+    byte[] array()
+    {
+      return buf;
+    }
+
+    void truncate(int length)
+    {
+      count = length;
+    }
+  }
+
+  private final DataOutputStream os;
+  private final int block_size;
+  private final Deflater deflater;
+
+  // Uncompressed text of the current block.
+  private final BlockBuffer block;
+  private final BlockBuffer compressed;
+  private final TSLWriter writer;
+
+  public TSLBlockWriter(OutputStream os)
+  {
+    this(os, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Create a block writer.
+   * @param os Output stream.
+   * @param block_size Minimum uncompressed size of a block, the last block may be smaller.
+   * At most {@link #MAX_BLOCK_LENGTH}.
+   * @param level Deflate compression level.
+   */
+  public TSLBlockWriter(OutputStream os, int block_size, int level)
+  {
+    if(block_size <= 0 || block_size > MAX_BLOCK_LENGTH)
+    {
+      throw new IllegalArgumentException("Invalid block size: " + block_size + ".");
+    }
+    this.os = new DataOutputStream(os);
+    this.block_size = block_size;
+    deflater = new Deflater(level);
+    block = new BlockBuffer(block_size + block_size / 4);
+    compressed = new BlockBuffer(block_size / 2);
+    writer = new TSLWriter(block);
+  }
+
+  /**
+   * Compress and write the current block.
+   */
+  private void writeBlock() throws IOException
+  {
+    if(block.size() == 0)
+    {
+      return;
+    }
+    if(block.size() > MAX_BLOCK_LENGTH)
+    {
+      throw new IOException("TSL block too large: " + block.size() + " bytes.");
+    }
+    byte[] chunk = new byte[8192];
+    compressed.reset();
+    deflater.reset();
+    deflater.setInput(block.array(), 0, block.size());
+    deflater.finish();
+    while(!deflater.finished())
+    {
+      int n = deflater.deflate(chunk);
+      compressed.write(chunk, 0, n);
+    }
+    os.writeInt(block.size());
+    os.writeInt(compressed.size());
+    os.write(compressed.array(), 0, compressed.size());
+    block.reset();
+  }
+
+  /**
+   * Start a root value in the current block.
+   * @return Length of the block before the value.
+   */
+  private int startValue() throws IOException
+  {
+    int start = block.size();
+    if(start > 0)
+    {
+      block.write(',');
+    }
+    writer.reset(block);
+    return start;
+  }
+
+  /**
+   * Finish a root value, writing the block once it is full.
+   */
+  private void endValue(int start) throws IOException
+  {
+    if(start > 0 && block.size() == start + 1)
+    {
+      // Nothing was written, remove the separator.
+      block.truncate(start);
+    }
+    if(block.size() >= block_size)
+    {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Write a TSL Object as a block compressed stream.
+   * Does nothing if the object is empty.
+   * The output stream is flushed but not closed.
+   * @param obj Object to write.
+   * @param name Name for the object.
+   * @throws IOException from the output stream, or if a root value doesn't fit in a block.
+   */
+  public void write(TSLObject obj, String name) throws IOException
+  {
+    if(obj.getValueCount() == 0)
+    {
+      return;
+    }
+    TSLUtil.validateValueName(name);
+    os.write(MAGIC);
+    os.writeByte(VERSION);
+    os.writeUTF(name);
+    try
+    {
+      int i;
+      for(i = 0; i < obj.getValueCount(); i++)
+      {
+        int start = startValue();
+        obj.writeValue(writer, i);
+        endValue(start);
+      }
+      writeBlock();
+    } finally
+    {
+      block.reset();
+      writer.reset((OutputStream)null);
+    }
+    os.writeInt(0);
+    os.flush();
+  }
+
+  /**
+   * Release the compressor's native resources.
+   * The writer must not be used after it's closed.
+   */
+  public void close()
+  {
+    deflater.end();
+  }
+}
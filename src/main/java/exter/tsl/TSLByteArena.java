@@ -0,0 +1,145 @@
+package exter.tsl;
+
+/**
+ * Shared storage for the UTF-8 string values of a document loaded with
+ * {@link TSLObject#loadUTF8(TSLReader, TSLByteArena)}.
+ * Values are packed into large chunks, so each value costs its UTF-8 bytes and a small slice,
+ * instead of a String and its char array.
+ * An arena is filled while loading a document, and is not thread safe while loading.
+ * The loaded objects can be read from multiple threads.
+ */
+public final class TSLByteArena
+{
+  // Default chunk size.
+  static public final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * UTF-8 string value.
+   */
+  static final class Slice
+  {
+    final byte[] bytes;
+    final int offset;
+    final int length;
+
+    Slice(byte[] bytes, int offset, int length)
+    {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * Decode the value.
+     */
+    String decode()
+    {
+      if(length == 0)
+      {
+        return "";
+      }
+      char[] chars = new char[length];
+      int n = TSLUtil.decodeUTF8(bytes, offset, length, chars, 0);
+      return new String(chars, 0, n);
+    }
+
+    /**
+     * Compare the bytes of two values.
+     * Values are encoded the same way, so equal strings have equal bytes.
+     */
+    boolean contentEquals(Slice other)
+    {
+      if(length != other.length)
+      {
+        return false;
+      }
+      int i;
+      for(i = 0; i < length; i++)
+      {
+        if(bytes[offset + i] != other.bytes[other.offset + i])
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static private final Slice EMPTY = new Slice(new byte[0], 0, 0);
+
+  private final int chunk_size;
+  private byte[] chunk;
+  private int chunk_pos;
+  private long size;
+
+  public TSLByteArena()
+  {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Create an arena.
+   * @param chunk_size Size of the arena's chunks, values larger than a quarter of a chunk get their own array.
+   */
+  public TSLByteArena(int chunk_size)
+  {
+    if(chunk_size <= 0)
+    {
+      throw new IllegalArgumentException("Invalid chunk size: " + chunk_size + ".");
+    }
+    this.chunk_size = chunk_size;
+    chunk = null;
+    chunk_pos = 0;
+    size = 0;
+  }
+
+  /**
+   * Encode a value into its own array.
+   */
+  static Slice encode(CharSequence str)
+  {
+    int length = TSLUtil.getUTF8Length(str);
+    if(length == 0)
+    {
+      return EMPTY;
+    }
+    byte[] bytes = new byte[length];
+    TSLUtil.encodeUTF8(str, bytes, 0);
+    return new Slice(bytes, 0, length);
+  }
+
+  /**
+   * Encode a value into the arena.
+   */
+  Slice add(CharSequence str)
+  {
+    int length = TSLUtil.getUTF8Length(str);
+    if(length == 0)
+    {
+      return EMPTY;
+    }
+    size += length;
+    if(length > chunk_size / 4)
+    {
+      byte[] bytes = new byte[length];
+      TSLUtil.encodeUTF8(str, bytes, 0);
+      return new Slice(bytes, 0, length);
+    }
+    if(chunk == null || chunk.length - chunk_pos < length)
+    {
+      chunk = new byte[chunk_size];
+      chunk_pos = 0;
+    }
+    Slice slice = new Slice(chunk, chunk_pos, length);
+    chunk_pos = TSLUtil.encodeUTF8(str, chunk, chunk_pos);
+    return slice;
+  }
+
+  /**
+   * Get the total UTF-8 length of the values stored in the arena.
+   */
+  public long getSize()
+  {
+    return size;
+  }
+}
@@ -0,0 +1,355 @@
+package exter.tsl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TSL Object that can be populated by multiple threads concurrently, without a global lock.
+ * The values of each name are appended to striped lists, each thread always appends to the same stripe,
+ * so threads putting values of the same name rarely contend.
+ * Values put by a thread keep their order, values of the same name put by different threads are grouped by stripe.
+ * <p>
+ * Reads, {@link #write(TSLWriter, String)} and {@link #toObject()} see a consistent snapshot of each name's values:
+ * every value put before the call, and a prefix of each thread's values put during the call.
+ * Values put concurrently with the removal of their name may be lost.
+ */
+public class TSLConcurrentObject
+{
+  // Number of stripes of each name's values.
+  static private final int STRIPES;
+
+  static
+  {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int n = 1;
+    while(n < cpus * 2 && n < 64)
+    {
+      n *= 2;
+    }
+    STRIPES = n;
+  }
+
+  /**
+   * Values of a name appended by a group of threads.
+   */
+  static private final class Stripe
+  {
+    private Object[] values;
+    private int count;
+
+    Stripe()
+    {
+      values = new Object[4];
+      count = 0;
+    }
+
+    synchronized void add(Object value)
+    {
+      if(count == values.length)
+      {
+        Object[] nvalues = new Object[count * 2];
+        System.arraycopy(values, 0, nvalues, 0, count);
+        values = nvalues;
+      }
+      values[count++] = value;
+    }
+
+    synchronized void addTo(List<Object> result)
+    {
+      int i;
+      for(i = 0; i < count; i++)
+      {
+        result.add(values[i]);
+      }
+    }
+  }
+
+  /**
+   * Values of a name.
+   */
+  static private final class ValueList
+  {
+    final String name;
+    // Stripes, created when a thread first appends to them.
+    final AtomicReferenceArray<Stripe> stripes;
+    // Object created by getOrCreateObject, written before the other values.
+    final AtomicReference<TSLConcurrentObject> object;
+
+    ValueList(String name)
+    {
+      this.name = name;
+      stripes = new AtomicReferenceArray<Stripe>(STRIPES);
+      object = new AtomicReference<TSLConcurrentObject>();
+    }
+
+    void add(Object value)
+    {
+      int i = (int)Thread.currentThread().getId() & (STRIPES - 1);
+      Stripe stripe = stripes.get(i);
+      if(stripe == null)
+      {
+        stripe = new Stripe();
+        if(!stripes.compareAndSet(i, null, stripe))
+        {
+          stripe = stripes.get(i);
+        }
+      }
+      stripe.add(value);
+    }
+
+    List<Object> snapshot()
+    {
+      List<Object> result = new ArrayList<Object>();
+      TSLConcurrentObject obj = object.get();
+      if(obj != null)
+      {
+        result.add(obj);
+      }
+      int i;
+      for(i = 0; i < STRIPES; i++)
+      {
+        Stripe stripe = stripes.get(i);
+        if(stripe != null)
+        {
+          stripe.addTo(result);
+        }
+      }
+      return result;
+    }
+  }
+
+  private final ConcurrentHashMap<String, ValueList> lists;
+  // Value lists in the order their names were first put.
+  private final ConcurrentLinkedQueue<ValueList> order;
+
+  public TSLConcurrentObject()
+  {
+    lists = new ConcurrentHashMap<String, ValueList>(16, 0.75f, STRIPES);
+    order = new ConcurrentLinkedQueue<ValueList>();
+  }
+
+  // Get the value list of a name, null if it doesn't exist.
+  private ValueList findList(String name)
+  {
+    if(name == null)
+    {
+      return null;
+    }
+    return lists.get(name);
+  }
+
+  // Get the value list of a name, creating it if it doesn't exist.
+  private ValueList getList(String name)
+  {
+    ValueList list = findList(name);
+    if(list == null)
+    {
+      TSLUtil.validateValueName(name);
+      list = new ValueList(name);
+      // Queue the list before it's published, so snapshots never miss a name that has values.
+      order.add(list);
+      ValueList existing = lists.putIfAbsent(name, list);
+      if(existing != null)
+      {
+        order.remove(list);
+        return existing;
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Puts a string.
+   * @throws IllegalArgumentException if the name is invalid.
+   * @param name Name of the string.
+   * @param value Value to put.
+   */
+  public void putString(String name, String value)
+  {
+    getList(name).add(value);
+  }
+
+  /**
+   * Puts a long represented as a string.
+   * @throws IllegalArgumentException if the name is invalid.
+   * @param name Name of the string.
+   * @param value Value to put.
+   */
+  public void putString(String name, long value)
+  {
+    putString(name, String.valueOf(value));
+  }
+
+  /**
+   * Puts a double represented as a string.
+   * @throws IllegalArgumentException if the name is invalid.
+   * @param name Name of the string.
+   * @param value Value to put.
+   */
+  public void putString(String name, double value)
+  {
+    putString(name, String.valueOf(value));
+  }
+
+  /**
+   * Puts a snapshot of an object.
+   * The object is frozen, so later changes to it are not seen.
+   * @throws IllegalArgumentException if the name is invalid, or the object is null.
+   * @param name Name of the object.
+   * @param obj Object to put.
+   */
+  public void putObject(String name, TSLObject obj)
+  {
+    if(obj == null)
+    {
+      throw new IllegalArgumentException("Invalid TSL Object: null.");
+    }
+    getList(name).add(obj.freeze());
+  }
+
+  /**
+   * Puts a concurrent object, that can still be populated after it's put.
+   * @throws IllegalArgumentException if the name is invalid, or the object is null.
+   * @param name Name of the object.
+   * @param obj Object to put.
+   */
+  public void putObject(String name, TSLConcurrentObject obj)
+  {
+    if(obj == null)
+    {
+      throw new IllegalArgumentException("Invalid TSL Object: null.");
+    }
+    getList(name).add(obj);
+  }
+
+  /**
+   * Get the shared concurrent object of a name, creating it if it doesn't exist.
+   * All threads get the same object for a name, it is written before the name's other values.
+   * @throws IllegalArgumentException if the name is invalid.
+   * @param name Name of the object.
+   * @return Shared object of the name.
+   */
+  public TSLConcurrentObject getOrCreateObject(String name)
+  {
+    ValueList list = getList(name);
+    TSLConcurrentObject obj = list.object.get();
+    if(obj == null)
+    {
+      obj = new TSLConcurrentObject();
+      if(!list.object.compareAndSet(null, obj))
+      {
+        obj = list.object.get();
+      }
+    }
+    return obj;
+  }
+
+  /**
+   * Gets a string.
+   * If multiple instances exists, the first instance of the snapshot is returned.
+   * @param name Name of the value.
+   * @param def Default value.
+   * @return Value string, default if not found.
+   */
+  public String getString(String name, String def)
+  {
+    ValueList list = findList(name);
+    if(list == null)
+    {
+      return def;
+    }
+    for(Object value : list.snapshot())
+    {
+      if(value == null || value instanceof String)
+      {
+        return (String)value;
+      }
+    }
+    return def;
+  }
+
+  /**
+   * Returns a snapshot of all strings with the specified name.
+   * @param name Name of strings.
+   * @return List of all strings with the specified name.
+   */
+  public List<String> getStringList(String name)
+  {
+    List<String> result = new ArrayList<String>();
+    ValueList list = findList(name);
+    if(list != null)
+    {
+      for(Object value : list.snapshot())
+      {
+        if(value == null || value instanceof String)
+        {
+          result.add((String)value);
+        }
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Remove all values of a given name.
+   * @param name Value's name.
+   */
+  public void removeValues(String name)
+  {
+    ValueList list = findList(name);
+    if(list != null && lists.remove(name, list))
+    {
+      order.remove(list);
+    }
+  }
+
+  /**
+   * Create a TSL Object from a snapshot of the object's values.
+   * Names are in the order they were first put, and concurrent child objects are converted as well.
+   * @return Snapshot of the object.
+   */
+  public TSLObject toObject()
+  {
+    TSLObject result = new TSLObject();
+    for(ValueList list : order)
+    {
+      if(lists.get(list.name) != list)
+      {
+        // Removed, or not published yet.
+        continue;
+      }
+      for(Object value : list.snapshot())
+      {
+        if(value instanceof TSLConcurrentObject)
+        {
+          result.putObject(list.name, ((TSLConcurrentObject)value).toObject());
+        } else if(value instanceof TSLObject)
+        {
+          result.putObject(list.name, (TSLObject)value);
+        } else
+        {
+          result.putString(list.name, (String)value);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes a snapshot of the object to a TSLWriter.
+   * Does nothing if the object is empty.
+   * @param writer Destination TSL writer.
+   * @param name Name for the object.
+   * @throws IOException from the TSLWriter.
+   */
+  public void write(TSLWriter writer, String name) throws IOException
+  {
+    toObject().write(writer, name);
+  }
+}
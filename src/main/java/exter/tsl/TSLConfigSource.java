@@ -0,0 +1,323 @@
+package exter.tsl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Keeps the root objects of TSL config files loaded, reloading them in the background when they change.
+ * Files are checked periodically on a scheduled executor, and a changed file is reloaded once
+ * it has stopped changing for the debounce delay, so a burst of edits causes a single reload.
+ * <p>
+ * Roots are frozen objects published through a volatile reference,
+ * so readers never block and always see a completely loaded root.
+ * If a changed file fails to load, the previous root is kept until the file changes again.
+ * <p>
+ * Changes are detected by the files' modification time and length. A file modified within the
+ * file system's timestamp granularity of when it was loaded could be edited again without changing either,
+ * so until its modification time is old enough its content is also compared with the loaded content's checksum.
+ */
+public class TSLConfigSource
+{
+  /**
+   * Receives reload events, called from the executor's thread.
+   * Exceptions thrown by the listener are ignored, and the files keep being polled.
+   * Errors are not caught, they stop the polling task.
+   */
+  public interface Listener
+  {
+    /**
+     * Called after a file is reloaded and its new root is published.
+     */
+    public void onReload(File file, TSLObject root);
+
+    /**
+     * Called when a changed file fails to load.
+     * @param e Exception thrown while loading the file.
+     */
+    public void onError(File file, Throwable e);
+  }
+
+  // Time after a file's modification during which it can be modified again without changing its
+  // modification time, the coarsest common timestamp granularity, in milliseconds.
+  static private final long RACY_TIME = 2000;
+
+  /**
+   * Watched file's state, only accessed by the polling task.
+   */
+  static private class Watched
+  {
+    final File file;
+    // Modification time and length of the loaded file.
+    long loaded_modified;
+    long loaded_length;
+    // Checksum of the loaded content, and whether the content must be checked for changes
+    // because the modification time was too recent when the file was loaded.
+    long loaded_crc;
+    boolean racy;
+    // Modification time and length last seen, and when they were first seen.
+    long seen_modified;
+    long seen_length;
+    long seen_time;
+
+    Watched(File file)
+    {
+      this.file = file;
+    }
+  }
+
+  private final Watched[] watched;
+  private final ScheduledExecutorService executor;
+  private final long poll_interval;
+  private final long debounce;
+  private final TimeUnit unit;
+  private final Listener listener;
+
+  // Root of each file, replaced as a whole when a file is reloaded.
+  private volatile TSLObject[] roots;
+  private ScheduledFuture<?> task;
+
+  /**
+   * Load the config files, without watching them until {@link #start()} is called.
+   * @param files Config files.
+   * @param executor Executor that runs the polling task.
+   * @param poll_interval Delay between checks of the files.
+   * @param debounce Time a changed file must stay unchanged before it's reloaded.
+   * @param unit Unit of the delays.
+   * @param listener Listener for reload events, or null.
+   * @throws InvalidTSLException if a file is not valid TSL, or its root value is not an object.
+   * @throws IOException if reading a file fails.
+   */
+  public TSLConfigSource(File[] files, ScheduledExecutorService executor, long poll_interval, long debounce, TimeUnit unit, Listener listener) throws InvalidTSLException, IOException
+  {
+    if(files.length == 0)
+    {
+      throw new IllegalArgumentException("No TSL config files.");
+    }
+    this.executor = executor;
+    this.poll_interval = poll_interval;
+    this.debounce = unit.toNanos(debounce);
+    this.unit = unit;
+    this.listener = listener;
+    watched = new Watched[files.length];
+    TSLObject[] loaded = new TSLObject[files.length];
+    int i;
+    for(i = 0; i < files.length; i++)
+    {
+      Watched w = new Watched(files[i]);
+      w.loaded_modified = files[i].lastModified();
+      w.loaded_length = files[i].length();
+      w.seen_modified = w.loaded_modified;
+      w.seen_length = w.loaded_length;
+      loaded[i] = load(w);
+      watched[i] = w;
+    }
+    roots = loaded;
+    task = null;
+  }
+
+  /**
+   * Load a single config file, without watching it until {@link #start()} is called.
+   * @see #TSLConfigSource(File[], ScheduledExecutorService, long, long, TimeUnit, Listener)
+   */
+  public TSLConfigSource(File file, ScheduledExecutorService executor, long poll_interval, long debounce, TimeUnit unit) throws InvalidTSLException, IOException
+  {
+    this(new File[] { file }, executor, poll_interval, debounce, unit, null);
+  }
+
+  // Load a file, recording the checksum of its content.
+  static private TSLObject load(Watched w) throws InvalidTSLException, IOException
+  {
+    long time = System.currentTimeMillis();
+    CheckedInputStream is = new CheckedInputStream(new BufferedInputStream(new FileInputStream(w.file)), new CRC32());
+    try
+    {
+      TSLReader reader = new TSLReader(is);
+      reader.moveNext();
+      if(reader.getState() != TSLReader.State.OBJECT)
+      {
+        throw new InvalidTSLException("Root value is not a TSL Object.");
+      }
+      TSLObject root = new TSLObject(reader).freeze();
+      skipRest(is);
+      w.loaded_crc = is.getChecksum().getValue();
+      w.racy = time - w.loaded_modified < RACY_TIME;
+      return root;
+    } finally
+    {
+      is.close();
+    }
+  }
+
+  // Read a stream to its end.
+  static private void skipRest(InputStream is) throws IOException
+  {
+    byte[] buffer = new byte[4096];
+    while(is.read(buffer) >= 0)
+    {
+    }
+  }
+
+  // Check if a file's content changed since it was loaded, while its modification time is too recent to tell.
+  static private boolean isContentChanged(Watched w)
+  {
+    if(!w.racy)
+    {
+      return false;
+    }
+    long time = System.currentTimeMillis();
+    try
+    {
+      CheckedInputStream is = new CheckedInputStream(new FileInputStream(w.file), new CRC32());
+      try
+      {
+        skipRest(is);
+      } finally
+      {
+        is.close();
+      }
+      if(is.getChecksum().getValue() != w.loaded_crc)
+      {
+        return true;
+      }
+    } catch(IOException e)
+    {
+      // Reload the file to report the error.
+      return true;
+    }
+    w.racy = time - w.loaded_modified < RACY_TIME;
+    return false;
+  }
+
+  // Publish a file's new root.
+  private void publish(int index, TSLObject root)
+  {
+    TSLObject[] nroots = new TSLObject[roots.length];
+    System.arraycopy(roots, 0, nroots, 0, nroots.length);
+    nroots[index] = root;
+    roots = nroots;
+  }
+
+  // Check the files, reloading the ones that changed and have been unchanged for the debounce delay.
+  private void poll()
+  {
+    long now = System.nanoTime();
+    int i;
+    for(i = 0; i < watched.length; i++)
+    {
+      Watched w = watched[i];
+      long modified = w.file.lastModified();
+      long length = w.file.length();
+      if(modified != w.seen_modified || length != w.seen_length)
+      {
+        w.seen_modified = modified;
+        w.seen_length = length;
+        w.seen_time = now;
+        continue;
+      }
+      if(modified == w.loaded_modified && length == w.loaded_length)
+      {
+        // An edit that kept the metadata has no changes to debounce, it's reloaded once detected.
+        if(!isContentChanged(w))
+        {
+          continue;
+        }
+      } else if(now - w.seen_time < debounce)
+      {
+        continue;
+      }
+      // Don't retry a failed load until the file changes again.
+      w.loaded_modified = modified;
+      w.loaded_length = length;
+      w.racy = false;
+      TSLObject root;
+      try
+      {
+        root = load(w);
+      } catch(Exception e)
+      {
+        if(listener != null)
+        {
+          try
+          {
+            listener.onError(w.file, e);
+          } catch(Exception ignored)
+          {
+            // Ignored, so the other files are still polled.
+          }
+        }
+        continue;
+      }
+      publish(i, root);
+      if(listener != null)
+      {
+        try
+        {
+          listener.onReload(w.file, root);
+        } catch(Exception e)
+        {
+          // Ignored, so the other files are still polled.
+        }
+      }
+    }
+  }
+
+  /**
+   * Start watching the files.
+   * Does nothing if the files are already watched.
+   * An error thrown while polling, such as an OutOfMemoryError, stops the polling task.
+   */
+  public synchronized void start()
+  {
+    if(task != null)
+    {
+      return;
+    }
+    task = executor.scheduleWithFixedDelay(new Runnable()
+    {
+      public void run()
+      {
+        poll();
+      }
+    }, poll_interval, poll_interval, unit);
+  }
+
+  /**
+   * Stop watching the files, the last loaded roots remain available.
+   * The executor is not shut down.
+   */
+  public synchronized void close()
+  {
+    if(task != null)
+    {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  /**
+   * Get the root object of the first file.
+   * @return Frozen root object.
+   */
+  public TSLObject getRoot()
+  {
+    return roots[0];
+  }
+
+  /**
+   * Get the root object of a file.
+   * @param index Index of the file, in the order they were passed to the constructor.
+   * @return Frozen root object.
+   */
+  public TSLObject getRoot(int index)
+  {
+    return roots[index];
+  }
+}
@@ -0,0 +1,382 @@
+package exter.tsl;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes patches between TSL Objects, and applies them in place.
+ * Values are compared per name and kind, as the lists returned by
+ * {@link TSLObject#getStringList(String)} and {@link TSLObject#getObjectList(String)}.
+ * A patch is itself a TSL Object, so it can be written and read like any other TSL.
+ * <p>
+ * Patch layout, each changed name has one entry:
+ * <pre>
+ * s [ n "name", k "kept", t "tail", v "value", ... ]
+ * o [ n "name", e [ i "index", ... ], l "count", v [ ... ], z "index", ... ]
+ * r "s name", r "o name", ...
+ * </pre>
+ * A string entry keeps the first k and the last t strings of the name, and replaces the ones between them with the v values.
+ * An object entry patches the objects at the e indexes with the e objects' entries,
+ * then truncates the name's objects to l objects, or appends objects up to l objects:
+ * empty objects at the z indexes, since empty objects are not written, and the v objects at the others.
+ * The r strings list the kind and name of every value in the target's order, they're only present
+ * if the entries leave the values in a different order.
+ * <p>
+ * A patched object is equal to the target of the diff, with its values in the same order, so it's written as the same TSL.
+ */
+public class TSLDiff
+{
+  static private final String STRINGS = "s";
+  static private final String OBJECTS = "o";
+  static private final String NAME = "n";
+  static private final String KEPT = "k";
+  static private final String TAIL = "t";
+  static private final String VALUE = "v";
+  static private final String ELEMENT = "e";
+  static private final String INDEX = "i";
+  static private final String LENGTH = "l";
+  static private final String EMPTY = "z";
+  static private final String ORDER = "r";
+  static private final String ORDER_STRING = "s ";
+  static private final String ORDER_OBJECT = "o ";
+
+  private TSLDiff()
+  {
+  }
+
+  /**
+   * Compute the patch that changes an object into another.
+   * @param source Object to patch.
+   * @param target Object to produce.
+   * @return Patch, an empty object if the objects are equal.
+   */
+  static public TSLObject diff(TSLObject source, TSLObject target)
+  {
+    TSLObject patch = new TSLObject();
+    diff(source, target, patch);
+    return patch;
+  }
+
+  // Add the entries of the patch from source to target.
+  static private void diff(TSLObject source, TSLObject target, TSLObject patch)
+  {
+    Set<String> names = new LinkedHashSet<String>(target.getStringNames());
+    names.addAll(source.getStringNames());
+    for(String name : names)
+    {
+      diffStrings(name, source.getStringList(name), target.getStringList(name), patch);
+    }
+    names = new LinkedHashSet<String>(target.getObjectNames());
+    names.addAll(source.getObjectNames());
+    for(String name : names)
+    {
+      diffObjects(name, source.getObjectList(name), target.getObjectList(name), patch);
+    }
+    if(!isOrderKept(source, target, patch))
+    {
+      int i;
+      for(i = 0; i < target.getValueCount(); i++)
+      {
+        patch.putString(ORDER, (target.isObjectValue(i) ? ORDER_OBJECT : ORDER_STRING) + target.getValueName(i));
+      }
+    }
+  }
+
+  // Check if applying the patch's entries leaves the values in the target's order.
+  static private boolean isOrderKept(TSLObject source, TSLObject target, TSLObject patch)
+  {
+    // Apply the entries to an object with the source's names and kinds, without the values.
+    TSLObject shape = new TSLObject();
+    int i;
+    for(i = 0; i < source.getValueCount(); i++)
+    {
+      if(source.isObjectValue(i))
+      {
+        shape.putObject(source.getValueName(i), new TSLObject());
+      } else
+      {
+        shape.putString(source.getValueName(i), "");
+      }
+    }
+    try
+    {
+      applyStrings(shape, patch);
+      for(TSLObject entry : patch.getObjectList(OBJECTS))
+      {
+        resizeObjects(shape, getName(entry), entry, false);
+      }
+    } catch(InvalidTSLException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    return isSameOrder(shape, target, false);
+  }
+
+  // Check if two objects have the same names and kinds in the same order.
+  static private boolean isSameOrder(TSLObject a, TSLObject b, boolean deep)
+  {
+    int count = a.getValueCount();
+    if(count != b.getValueCount())
+    {
+      return false;
+    }
+    int i;
+    for(i = 0; i < count; i++)
+    {
+      if(a.isObjectValue(i) != b.isObjectValue(i) || !a.getValueName(i).equals(b.getValueName(i)))
+      {
+        return false;
+      }
+    }
+    if(deep)
+    {
+      for(String name : a.getObjectNames())
+      {
+        List<TSLObject> x = a.getObjectList(name);
+        List<TSLObject> y = b.getObjectList(name);
+        for(i = 0; i < x.size(); i++)
+        {
+          if(!isSameOrder(x.get(i), y.get(i), true))
+          {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  static private void diffStrings(String name, List<String> a, List<String> b, TSLObject patch)
+  {
+    int kept = 0;
+    while(kept < a.size() && kept < b.size() && equal(a.get(kept), b.get(kept)))
+    {
+      kept++;
+    }
+    if(kept == a.size() && kept == b.size())
+    {
+      return;
+    }
+    int tail = 0;
+    while(kept + tail < a.size() && kept + tail < b.size() && equal(a.get(a.size() - 1 - tail), b.get(b.size() - 1 - tail)))
+    {
+      tail++;
+    }
+    TSLObject entry = new TSLObject();
+    entry.putString(NAME, name);
+    entry.putString(KEPT, kept);
+    if(tail > 0)
+    {
+      entry.putString(TAIL, tail);
+    }
+    int i;
+    for(i = kept; i < b.size() - tail; i++)
+    {
+      entry.putString(VALUE, b.get(i));
+    }
+    patch.putObject(STRINGS, entry);
+  }
+
+  static private boolean equal(String a, String b)
+  {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  static private void diffObjects(String name, List<TSLObject> a, List<TSLObject> b, TSLObject patch)
+  {
+    TSLObject entry = null;
+    int common = Math.min(a.size(), b.size());
+    int i;
+    for(i = 0; i < common; i++)
+    {
+      TSLObject x = a.get(i);
+      TSLObject y = b.get(i);
+      if(x != y && !(x.equals(y) && isSameOrder(x, y, true)))
+      {
+        if(entry == null)
+        {
+          entry = newEntry(name);
+        }
+        TSLObject element = new TSLObject();
+        element.putString(INDEX, i);
+        diff(x, y, element);
+        entry.putObject(ELEMENT, element);
+      }
+    }
+    if(a.size() != b.size())
+    {
+      if(entry == null)
+      {
+        entry = newEntry(name);
+      }
+      entry.putString(LENGTH, b.size());
+      for(i = common; i < b.size(); i++)
+      {
+        TSLObject value = b.get(i);
+        if(value.getValueCount() == 0)
+        {
+          entry.putString(EMPTY, i);
+        } else
+        {
+          entry.putObject(VALUE, value);
+        }
+      }
+    }
+    if(entry != null)
+    {
+      patch.putObject(OBJECTS, entry);
+    }
+  }
+
+  static private TSLObject newEntry(String name)
+  {
+    TSLObject entry = new TSLObject();
+    entry.putString(NAME, name);
+    return entry;
+  }
+
+  /**
+   * Apply a patch created by {@link #diff(TSLObject, TSLObject)} to an object, in place.
+   * Frozen child objects are replaced with frozen patched copies.
+   * The object is left partially patched if the patch is not valid.
+   * @param obj Object to patch, the source of the diff.
+   * @param patch Patch to apply.
+   * @throws InvalidTSLException if the patch is not valid for the object.
+   * @throws UnsupportedOperationException if the object is frozen.
+   */
+  static public void apply(TSLObject obj, TSLObject patch) throws InvalidTSLException
+  {
+    applyStrings(obj, patch);
+    for(TSLObject entry : patch.getObjectList(OBJECTS))
+    {
+      applyObjects(obj, getName(entry), entry);
+    }
+    applyOrder(obj, patch.getStringList(ORDER));
+  }
+
+  static private void applyStrings(TSLObject obj, TSLObject patch) throws InvalidTSLException
+  {
+    for(TSLObject entry : patch.getObjectList(STRINGS))
+    {
+      String name = getName(entry);
+      int kept = entry.getStringAsInt(KEPT, -1);
+      int tail = entry.getStringAsInt(TAIL, 0);
+      int count = obj.getValueCount(name, false);
+      if(kept < 0 || tail < 0 || kept > count - tail)
+      {
+        throw new InvalidTSLException("Invalid TSL patch: '" + name + "'.");
+      }
+      obj.spliceStrings(name, kept, count - kept - tail, entry.getStringList(VALUE));
+    }
+  }
+
+  static private void applyOrder(TSLObject obj, List<String> order) throws InvalidTSLException
+  {
+    if(order.isEmpty())
+    {
+      return;
+    }
+    String[] names = new String[order.size()];
+    boolean[] objects = new boolean[order.size()];
+    int i;
+    for(i = 0; i < names.length; i++)
+    {
+      String value = order.get(i);
+      if(value.startsWith(ORDER_OBJECT))
+      {
+        objects[i] = true;
+      } else if(!value.startsWith(ORDER_STRING))
+      {
+        throw new InvalidTSLException("Invalid TSL patch order: '" + value + "'.");
+      }
+      names[i] = value.substring(ORDER_STRING.length());
+    }
+    if(!obj.reorder(names, objects))
+    {
+      throw new InvalidTSLException("Invalid TSL patch order.");
+    }
+  }
+
+  static private String getName(TSLObject entry) throws InvalidTSLException
+  {
+    String name = entry.getString(NAME, null);
+    if(name == null || !TSLUtil.isValidValueName(name))
+    {
+      throw new InvalidTSLException("Invalid TSL patch name: '" + name + "'.");
+    }
+    return name;
+  }
+
+  static private void applyObjects(TSLObject obj, String name, TSLObject entry) throws InvalidTSLException
+  {
+    List<TSLObject> children = obj.getObjectList(name);
+    for(TSLObject element : entry.getObjectList(ELEMENT))
+    {
+      int index = element.getStringAsInt(INDEX, -1);
+      if(index < 0 || index >= children.size())
+      {
+        throw new InvalidTSLException("Invalid TSL patch index: '" + name + "' " + index + ".");
+      }
+      TSLObject child = children.get(index);
+      if(child.isFrozen())
+      {
+        TSLObject copy = child.toBuilder();
+        apply(copy, element);
+        obj.setObject(name, index, copy.freeze());
+      } else
+      {
+        apply(child, element);
+      }
+    }
+    resizeObjects(obj, name, entry, true);
+  }
+
+  // Truncate the objects with the specified name, or append objects up to the entry's length.
+  // Only empty objects are appended if the entry's values are not copied.
+  static private void resizeObjects(TSLObject obj, String name, TSLObject entry, boolean copy) throws InvalidTSLException
+  {
+    int length = entry.getStringAsInt(LENGTH, -1);
+    if(length < 0)
+    {
+      return;
+    }
+    int count = obj.getValueCount(name, true);
+    if(length < count)
+    {
+      obj.truncateValues(name, true, length);
+      return;
+    }
+    boolean[] empty = new boolean[length - count];
+    for(String value : entry.getStringList(EMPTY))
+    {
+      int index;
+      try
+      {
+        index = Integer.parseInt(value);
+      } catch(NumberFormatException e)
+      {
+        index = -1;
+      }
+      if(index < count || index >= length)
+      {
+        throw new InvalidTSLException("Invalid TSL patch index: '" + name + "' " + value + ".");
+      }
+      empty[index - count] = true;
+    }
+    List<TSLObject> values = entry.getObjectList(VALUE);
+    int v = 0;
+    int i;
+    for(i = 0; i < empty.length; i++)
+    {
+      // Objects past the values are empty, for patches that only record the length.
+      if(copy && !empty[i] && v < values.size())
+      {
+        obj.putObject(name, values.get(v++).toBuilder());
+      } else
+      {
+        obj.putObject(name, new TSLObject());
+      }
+    }
+  }
+}
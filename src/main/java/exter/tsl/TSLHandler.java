@@ -0,0 +1,27 @@
+package exter.tsl;
+
+import java.io.IOException;
+
+/**
+ * Receives the values parsed by a TSLPushParser.
+ */
+public interface TSLHandler
+{
+  /**
+   * Called when a string value is parsed.
+   * @param name Name of the string.
+   * @param value String value.
+   */
+  public void putString(String name, String value) throws IOException;
+
+  /**
+   * Called at the start of an object.
+   * @param name Name of the object.
+   */
+  public void startObject(String name) throws IOException;
+
+  /**
+   * Called at the end of the last started object.
+   */
+  public void endObject() throws IOException;
+}
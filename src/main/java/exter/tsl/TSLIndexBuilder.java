@@ -0,0 +1,199 @@
+package exter.tsl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Builds a sidecar index of a TSL file, for random access with TSLRandomAccessReader.
+ * The index records the name and file region of every object in the root object,
+ * and optionally of every object in those objects.
+ * <p>
+ * The index is itself a TSL file:
+ * <pre>
+ * tsl-index [
+ *   size "file size",
+ *   modified "file modification time",
+ *   check "checksum of the start and end of the file",
+ *   o [ n "name", s "start", e "end", o [ ... ], ... ],
+ *   ...
+ * ]
+ * </pre>
+ * A region starts at the object's '[' and ends after its ']'.
+ * The modification time is only recorded when the index is built from a File.
+ * The size, modification time and checksum are checked when the index is opened.
+ * The checksum only covers the first and last 64 KB of the file, so an edit in the middle that keeps the size
+ * is not detected when the modification time is kept or not recorded, and TSLRandomAccessReader checks
+ * that each region it reads is still a whole object, see {@link TSLRandomAccessReader}.
+ */
+public class TSLIndexBuilder
+{
+  static final String INDEX_NAME = "tsl-index";
+  static final String FILE_SIZE = "size";
+  static final String FILE_MODIFIED = "modified";
+  static final String FILE_CHECK = "check";
+  static final String ENTRY = "o";
+  static final String ENTRY_NAME = "n";
+  static final String ENTRY_START = "s";
+  static final String ENTRY_END = "e";
+
+  // Size of the start and end of the file covered by the checksum.
+  static private final int CHECK_SIZE = 64 * 1024;
+
+  private final TSLReader reader;
+  private final TSLWriter writer;
+  private final boolean second_level;
+
+  private TSLIndexBuilder(TSLReader reader, TSLWriter writer, boolean second_level)
+  {
+    this.reader = reader;
+    this.writer = writer;
+    this.second_level = second_level;
+  }
+
+  /**
+   * Index the object the reader is on, the reader is left at its ENDOBJECT.
+   * @param index_children Index the object's child objects.
+   */
+  private void indexObject(boolean index_children) throws InvalidTSLException, IOException
+  {
+    writer.startObject(ENTRY);
+    writer.putString(ENTRY_NAME, reader.getName());
+    writer.putString(ENTRY_START, String.valueOf(reader.getPosition() - 1));
+    if(index_children)
+    {
+      while(true)
+      {
+        reader.moveNext();
+        if(reader.getState() == TSLReader.State.OBJECT)
+        {
+          indexObject(false);
+        } else if(reader.getState() != TSLReader.State.STRING)
+        {
+          break;
+        }
+      }
+    } else
+    {
+      reader.skipObject();
+    }
+    writer.putString(ENTRY_END, String.valueOf(reader.getPosition()));
+    writer.endObject();
+  }
+
+  /**
+   * Compute the checksum of the start and end of a file, which catches changes that keep its size.
+   */
+  static long checksum(FileChannel channel, long size) throws IOException
+  {
+    CRC32 crc = new CRC32();
+    ByteBuffer buffer = ByteBuffer.allocate(CHECK_SIZE);
+    long tail = Math.max(size - CHECK_SIZE, CHECK_SIZE);
+    update(crc, channel, buffer, 0, Math.min(size, CHECK_SIZE));
+    if(tail < size)
+    {
+      update(crc, channel, buffer, tail, size - tail);
+    }
+    return crc.getValue();
+  }
+
+  // Add a file region of at most CHECK_SIZE bytes to a checksum.
+  static private void update(CRC32 crc, FileChannel channel, ByteBuffer buffer, long position, long length) throws IOException
+  {
+    buffer.clear();
+    buffer.limit((int)length);
+    while(buffer.hasRemaining())
+    {
+      if(channel.read(buffer, position + buffer.position()) < 0)
+      {
+        throw new IOException("Unexpected end of file.");
+      }
+    }
+    crc.update(buffer.array(), 0, buffer.position());
+  }
+
+  private void build(long size, long modified, long check) throws InvalidTSLException, IOException
+  {
+    reader.moveNext();
+    if(reader.getState() != TSLReader.State.OBJECT)
+    {
+      throw new InvalidTSLException("Root value is not a TSL Object.");
+    }
+    writer.startObject(INDEX_NAME);
+    writer.putString(FILE_SIZE, String.valueOf(size));
+    if(modified != 0)
+    {
+      writer.putString(FILE_MODIFIED, String.valueOf(modified));
+    }
+    writer.putString(FILE_CHECK, String.valueOf(check));
+    while(true)
+    {
+      reader.moveNext();
+      if(reader.getState() == TSLReader.State.OBJECT)
+      {
+        indexObject(second_level);
+      } else if(reader.getState() != TSLReader.State.STRING)
+      {
+        break;
+      }
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Build the index of a TSL file.
+   * The file is indexed from the start, the channel is not closed.
+   * @param channel TSL file.
+   * @param os Destination of the index.
+   * @param second_level Also index the objects in the root object's objects.
+   * @throws InvalidTSLException if a TSL parsing error occurs, or the root value is not an object.
+   * @throws IOException if reading the file or writing the index fails.
+   */
+  static public void build(FileChannel channel, OutputStream os, boolean second_level) throws InvalidTSLException, IOException
+  {
+    build(channel, os, second_level, 0);
+  }
+
+  static private void build(FileChannel channel, OutputStream os, boolean second_level, long modified) throws InvalidTSLException, IOException
+  {
+    long size = channel.size();
+    TSLReader reader = new TSLReader(channel, 0, size);
+    reader.setNameTable(new TSLNameTable());
+    TSLWriter writer = new TSLWriter(os);
+    new TSLIndexBuilder(reader, writer, second_level).build(size, modified, checksum(channel, size));
+  }
+
+  /**
+   * Build the index of a TSL file.
+   * @param file TSL file.
+   * @param index Index file to create.
+   * @param second_level Also index the objects in the root object's objects.
+   * @throws InvalidTSLException if a TSL parsing error occurs, or the root value is not an object.
+   * @throws IOException if reading the file or writing the index fails.
+   */
+  static public void build(File file, File index, boolean second_level) throws InvalidTSLException, IOException
+  {
+    long modified = file.lastModified();
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try
+    {
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(index));
+      try
+      {
+        build(raf.getChannel(), os, second_level, modified);
+      } finally
+      {
+        os.close();
+      }
+    } finally
+    {
+      raf.close();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package exter.tsl;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Table of canonical string values and frozen objects, used by
+ * {@link TSLObject#loadCanonical(TSLReader, TSLInternTable)} to share equal values between and within documents.
+ * Entries are weakly referenced, so values no longer used by any document are garbage collected.
+ * Thread safe, a table can be shared by loads on any number of threads.
+ * The table is split in stripes by hash, each with its own lock, so concurrent loads rarely wait for each other.
+ */
+public class TSLInternTable
+{
+  // Number of stripes, a power of two.
+  static private final int STRIPES = 16;
+
+  /**
+   * Values whose hashes map to the same stripe.
+   */
+  static private final class Stripe
+  {
+    final WeakHashMap<String, WeakReference<String>> strings;
+    final WeakHashMap<TSLObject, WeakReference<TSLObject>> objects;
+
+    Stripe()
+    {
+      strings = new WeakHashMap<String, WeakReference<String>>();
+      objects = new WeakHashMap<TSLObject, WeakReference<TSLObject>>();
+    }
+  }
+
+  private final Stripe[] stripes;
+
+  public TSLInternTable()
+  {
+    stripes = new Stripe[STRIPES];
+    int i;
+    for(i = 0; i < STRIPES; i++)
+    {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  // Get the stripe of a value's hash.
+  private Stripe getStripe(int hash)
+  {
+    return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+  }
+
+  /**
+   * Get the canonical instance of a string.
+   * @param str String value, may be null.
+   * @return Canonical string equal to the string.
+   */
+  public String intern(String str)
+  {
+    if(str == null)
+    {
+      return null;
+    }
+    Stripe stripe = getStripe(str.hashCode());
+    synchronized(stripe)
+    {
+      WeakReference<String> ref = stripe.strings.get(str);
+      if(ref != null)
+      {
+        String result = ref.get();
+        if(result != null)
+        {
+          return result;
+        }
+      }
+      stripe.strings.put(str, new WeakReference<String>(str));
+      return str;
+    }
+  }
+
+  /**
+   * Get the canonical frozen instance of an object.
+   * Objects are frozen and compared by the content hashes cached when they're frozen first, and their child objects
+   * are compared by reference first, so interning is fast when child objects are interned as well.
+   * @param obj Object to intern, frozen if it's not frozen.
+   * @return Canonical frozen object equal to the object.
+   */
+  public TSLObject intern(TSLObject obj)
+  {
+    obj = obj.freeze();
+    Stripe stripe = getStripe(obj.hashCode());
+    synchronized(stripe)
+    {
+      WeakReference<TSLObject> ref = stripe.objects.get(obj);
+      if(ref != null)
+      {
+        TSLObject result = ref.get();
+        if(result != null)
+        {
+          return result;
+        }
+      }
+      stripe.objects.put(obj, new WeakReference<TSLObject>(obj));
+      return obj;
+    }
+  }
+
+  /**
+   * Get the number of strings in the table.
+   */
+  public int getStringCount()
+  {
+    int count = 0;
+    for(Stripe stripe : stripes)
+    {
+      synchronized(stripe)
+      {
+        count += stripe.strings.size();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Get the number of objects in the table.
+   */
+  public int getObjectCount()
+  {
+    int count = 0;
+    for(Stripe stripe : stripes)
+    {
+      synchronized(stripe)
+      {
+        count += stripe.objects.size();
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,156 @@
+package exter.tsl;
+
+/**
+ * Symbol table of value names.
+ * Returns a canonical String instance for names read by a TSLReader,
+ * so that repeated names don't allocate a new String each time.
+ * The table stops adding names once it reaches its size limit.
+ * Not thread safe, a table can be shared by readers used on the same thread.
+ */
+public class TSLNameTable
+{
+  // Default maximum number of names.
+  public static final int DEFAULT_MAX_SIZE = 4096;
+
+  private String[] names;
+  private int[] hashes;
+  private int size;
+  private int max_size;
+
+  /**
+   * Create a name table with the default size limit.
+   */
+  public TSLNameTable()
+  {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Create a name table.
+   * @param max_size Maximum number of names stored in the table.
+   */
+  public TSLNameTable(int max_size)
+  {
+    if(max_size < 0)
+    {
+      throw new IllegalArgumentException("Invalid name table size: " + max_size + ".");
+    }
+    this.max_size = max_size;
+    names = new String[64];
+    hashes = new int[64];
+    size = 0;
+  }
+
+  /**
+   * Get the number of names in the table.
+   * @return Number of names in the table.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Get the maximum number of names in the table.
+   * @return Maximum number of names in the table.
+   */
+  public int getMaxSize()
+  {
+    return max_size;
+  }
+
+  /**
+   * Remove all names.
+   */
+  public void clear()
+  {
+    int i;
+    for(i = 0; i < names.length; i++)
+    {
+      names[i] = null;
+    }
+    size = 0;
+  }
+
+  static private boolean matches(String str, char[] chars, int offset, int length)
+  {
+    if(str.length() != length)
+    {
+      return false;
+    }
+    int i;
+    for(i = 0; i < length; i++)
+    {
+      if(str.charAt(i) != chars[offset + i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void grow()
+  {
+    String[] old_names = names;
+    int[] old_hashes = hashes;
+    names = new String[old_names.length * 2];
+    hashes = new int[old_names.length * 2];
+    int mask = names.length - 1;
+    int i;
+    for(i = 0; i < old_names.length; i++)
+    {
+      String str = old_names[i];
+      if(str != null)
+      {
+        int j = old_hashes[i] & mask;
+        while(names[j] != null)
+        {
+          j = (j + 1) & mask;
+        }
+        names[j] = str;
+        hashes[j] = old_hashes[i];
+      }
+    }
+  }
+
+  /**
+   * Get the canonical String for a name.
+   * @param chars Buffer containing the name.
+   * @param offset Start of the name in the buffer.
+   * @param length Length of the name.
+   * @return Canonical String of the name, or a new String if the table is full.
+   */
+  public String get(char[] chars, int offset, int length)
+  {
+    int hash = 0;
+    int i;
+    for(i = 0; i < length; i++)
+    {
+      hash = 31 * hash + chars[offset + i];
+    }
+    int mixed = hash ^ (hash >>> 16);
+    int mask = names.length - 1;
+    int j = mixed & mask;
+    String str;
+    while((str = names[j]) != null)
+    {
+      if(hashes[j] == mixed && matches(str, chars, offset, length))
+      {
+        return str;
+      }
+      j = (j + 1) & mask;
+    }
+    str = String.valueOf(chars, offset, length);
+    if(size < max_size)
+    {
+      names[j] = str;
+      hashes[j] = mixed;
+      size++;
+      if(size * 2 > names.length)
+      {
+        grow();
+      }
+    }
+    return str;
+  }
+}
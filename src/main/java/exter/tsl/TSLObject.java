@@ -1,41 +1,1020 @@
 package exter.tsl;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Represents a TSL Object.
+ * Values are stored in a flat array in insertion order, with a name index for larger objects.
+ * <p>
+ * An object can be frozen with {@link #freeze()} into an immutable snapshot,
+ * which can be read by any number of threads without locking.
+ * <p>
+ * Objects cache a hash of their content. Frozen objects compute it when they're frozen,
+ * mutable objects when it's first requested, reusing the cached hashes of their child objects.
+ * Modifying an object clears the cached hash of the object and of the mutable objects that contain it,
+ * so the hash of an unchanged object is returned without walking its values.
  */
 public class TSLObject
 {
-  //Strings
-  private Map<String, List<String>> strings_map;
-  //Objects
-  private Map<String, List<TSLObject>> objects_map;
+  // Number of values above which the name index is used.
+  static private final int INDEX_THRESHOLD = 8;
+
+  static private final String[] NO_NAMES = new String[0];
+  static private final Object[] NO_VALUES = new Object[0];
+
+  /**
+   * Values of an object.
+   * Referenced through a final field, so a frozen object's values, which are only written
+   * by its constructor, are visible to every thread that sees the object, however it's published (JLS 17.5).
+   */
+  static private final class Storage
+  {
+    // Values in insertion order, each value is a String, a UTF-8 TSLByteArena.Slice or a TSLObject.
+    String[] names;
+    Object[] values;
+    int count;
+    // Number of object values.
+    int object_count;
+
+    // Name index: open addressed table of the first and last value of each name as value index + 1,
+    // and the index of the next value with the same name of each value, -1 for the last one.
+    int[] index_first;
+    int[] index_last;
+    int[] index_next;
+
+    // Typed values parsed from the string values, created on the first typed read.
+    // Frozen objects create it up front, and only write its slots, with immutable TypedValues.
+    TypedValue[] typed;
+  }
+
+  private final Storage storage;
+
+  //Lazily loaded values, null once loaded.
+  // Cleared after the values are created, so a thread that sees it cleared also sees the values.
+  private volatile TSLTape tape;
+  private final int tape_start;
+  private final int tape_end;
+
+  // Immutable snapshot created by freeze().
+  private final boolean frozen;
+
+  // Content hash of a frozen object, computed when it's created, 0 for mutable objects.
+  private final long content_hash;
+
+  // Cached content hash of a mutable object, valid while hash_cached is set.
+  // Readers that compute the hash concurrently all write the same value.
+  private volatile long cached_hash;
+  private volatile boolean hash_cached;
+
+  // Mutable objects that contain this mutable object, whose cached hashes depend on its content:
+  // null, a single TSLObject, or an array of them with null free slots.
+  // A cached hash implies cached hashes in all the child objects, so clearing stops at an object without one.
+  private Object parents;
 
   /**
    * Create a blank object.
    */
   public TSLObject()
   {
-    strings_map = new HashMap<String, List<String>>();
-    objects_map = new HashMap<String, List<TSLObject>>();
+    storage = new Storage();
+    storage.names = NO_NAMES;
+    storage.values = NO_VALUES;
+    frozen = false;
+    content_hash = 0;
+    tape_start = 0;
+    tape_end = 0;
   }
 
   
+  // Create a lazily loaded object from the tape entries [start, end).
+  private TSLObject(TSLTape tape, int start, int end)
+  {
+    storage = new Storage();
+    storage.names = null;
+    storage.values = null;
+    frozen = false;
+    content_hash = 0;
+    this.tape = tape;
+    tape_start = start;
+    tape_end = end;
+  }
+
+  /**
+   * Load a TSL Object lazily from a TSLReader.
+   * The reader's values are recorded into a compact tape, and each object's values
+   * are only created when the object is first accessed.
+   * The tape holds a copy of the characters of all the document's strings, which is kept as long as
+   * any of the document's objects is reachable, and the strings of accessed objects are copied again.
+   * Lazy loading saves the time and allocations of creating the values that are never accessed,
+   * it doesn't reduce the memory taken by the characters.
+   * Objects are loaded once, and can be accessed by multiple threads concurrently without modifying them.
+   * The reader's state must be TSLReader.State.OBJECT
+   * @param reader TSL reader to use
+   * @return Lazily loaded object.
+   * @throws IllegalStateException if reader's state is not TSLReader.State.OBJECT
+   */
+  static public TSLObject loadLazy(TSLReader reader) throws InvalidTSLException, IOException
+  {
+    TSLTape tape = TSLTape.read(reader);
+    return new TSLObject(tape, 0, tape.count);
+  }
+
+  /**
+   * Load a TSL Object from a TSLReader, storing its string values as UTF-8.
+   * Values are decoded when read, and written without being encoded again.
+   * UTF-8 takes less memory than Strings on runtimes that store Strings as UTF-16, and for non Latin-1 text.
+   * Values put after loading are stored as Strings.
+   * The reader's state must be TSLReader.State.OBJECT
+   * @param reader TSL reader to use
+   * @param arena Arena shared by the document's values, or null to store each value in its own array.
+   * @return Loaded object.
+   * @throws IllegalStateException if reader's state is not TSLReader.State.OBJECT
+   */
+  static public TSLObject loadUTF8(TSLReader reader, TSLByteArena arena) throws InvalidTSLException, IOException
+  {
+    checkReaderState(reader);
+    TSLObject obj = new TSLObject();
+    obj.loadValues(reader, true, arena);
+    return obj;
+  }
+
+  /**
+   * Load a TSL Object from a TSLReader, sharing equal values through an intern table.
+   * Equal strings are loaded as a single String, and equal objects as a single frozen object,
+   * within the document and with other documents loaded with the same table.
+   * The reader's state must be TSLReader.State.OBJECT
+   * @param reader TSL reader to use
+   * @param table Intern table of the canonical values.
+   * @return Loaded object, frozen.
+   * @throws IllegalStateException if reader's state is not TSLReader.State.OBJECT
+   */
+  static public TSLObject loadCanonical(TSLReader reader, TSLInternTable table) throws InvalidTSLException, IOException
+  {
+    checkReaderState(reader);
+    TSLObject obj = new TSLObject();
+    obj.loadCanonicalValues(reader, table);
+    return table.intern(obj);
+  }
+
+  /**
+   * Load a TSL file, parsing the root object's child objects in parallel.
+   * The root object is scanned to find its child objects,
+   * which are then parsed by tasks submitted to the executor.
+   * The result is the same as loading the file with {@link #TSLObject(TSLReader)}.
+   * The file is parsed from the channel's current position, the channel is not closed.
+   * @param channel TSL file.
+   * @param executor Executor that runs the parsing tasks.
+   * @return Root object.
+   * @throws InvalidTSLException if a TSL parsing error occurs, or the root value is not an object.
+   * @throws IOException if reading the file fails.
+   */
+  static public TSLObject parseParallel(FileChannel channel, ExecutorService executor) throws InvalidTSLException, IOException
+  {
+    return TSLParallelParser.parse(channel, executor);
+  }
+
+  /**
+   * Load a block compressed stream written by TSLBlockWriter, decompressing and parsing its blocks in parallel.
+   * The result is the same as loading the stream with a TSLReader over a TSLBlockInputStream.
+   * The stream is not closed.
+   * @param is Block compressed stream.
+   * @param executor Executor that runs the decompression and parsing tasks.
+   * @return Root object.
+   * @throws InvalidTSLException if a TSL parsing error occurs.
+   * @throws IOException if reading the stream fails, or the stream is not a valid block compressed stream.
+   */
+  static public TSLObject parseBlocks(InputStream is, ExecutorService executor) throws InvalidTSLException, IOException
+  {
+    return TSLParallelParser.parseBlocks(is, executor);
+  }
+
+  // Create a frozen copy of an object, with frozen copies of its child objects.
+  private TSLObject(TSLObject obj)
+  {
+    storage = new Storage();
+    obj.load();
+    frozen = true;
+    tape_start = 0;
+    tape_end = 0;
+    storage.count = obj.storage.count;
+    storage.object_count = obj.storage.object_count;
+    if(storage.count == 0)
+    {
+      storage.names = NO_NAMES;
+      storage.values = NO_VALUES;
+      content_hash = computeHash();
+      return;
+    }
+    storage.names = new String[storage.count];
+    System.arraycopy(obj.storage.names, 0, storage.names, 0, storage.count);
+    storage.values = new Object[storage.count];
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      Object value = obj.storage.values[i];
+      storage.values[i] = value instanceof TSLObject ? ((TSLObject)value).freeze() : value;
+    }
+    buildIndex();
+    // The typed value cache and the hash are created up front, so reads never change the object's fields,
+    // and the cache's array is published with the object.
+    if(storage.object_count < storage.count)
+    {
+      storage.typed = new TypedValue[storage.count];
+    }
+    content_hash = computeHash();
+  }
+
+  /**
+   * Create an immutable snapshot of the object.
+   * The snapshot's values are fully loaded into compact arrays,
+   * and its child objects are frozen as well, child objects that are already frozen are shared.
+   * A frozen object is never modified after it's created, so it can be read by any number of threads
+   * without locking, even when it's published to them without synchronization.
+   * Methods that modify the object throw UnsupportedOperationException.
+   * @return Frozen copy of the object, or the object itself if it's already frozen.
+   */
+  public TSLObject freeze()
+  {
+    if(frozen)
+    {
+      return this;
+    }
+    return new TSLObject(this);
+  }
+
+  /**
+   * Check if the object is a frozen snapshot created by {@link #freeze()}.
+   */
+  public boolean isFrozen()
+  {
+    return frozen;
+  }
+
+  /**
+   * Create a mutable copy of the object, to build a modified version of it.
+   * Frozen child objects are shared with the copy, other child objects are copied.
+   * To modify a frozen child object, replace it with a modified copy created with its own toBuilder().
+   * @return Mutable copy of the object.
+   */
+  public TSLObject toBuilder()
+  {
+    load();
+    TSLObject result = new TSLObject();
+    result.ensureCapacity(storage.count);
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      Object value = storage.values[i];
+      if(value instanceof TSLObject && !((TSLObject)value).frozen)
+      {
+        value = ((TSLObject)value).toBuilder();
+      }
+      result.add(storage.names[i], value);
+    }
+    return result;
+  }
+
+  // Throw if the object is frozen, before the object is modified, otherwise clear the cached hashes.
+  private void modify()
+  {
+    if(frozen)
+    {
+      throw new UnsupportedOperationException("TSL Object is frozen.");
+    }
+    clearHash();
+  }
+
+  // Clear the cached hash of the object and the objects that contain it.
+  private void clearHash()
+  {
+    if(!hash_cached)
+    {
+      return;
+    }
+    hash_cached = false;
+    Object p = parents;
+    if(p instanceof TSLObject)
+    {
+      ((TSLObject)p).clearHash();
+    } else if(p != null)
+    {
+      for(TSLObject parent : (TSLObject[])p)
+      {
+        if(parent != null)
+        {
+          parent.clearHash();
+        }
+      }
+    }
+  }
+
+  // Record that a value is contained in the object, if it's a mutable object.
+  private void linkValue(Object value)
+  {
+    if(!(value instanceof TSLObject) || ((TSLObject)value).frozen)
+    {
+      return;
+    }
+    TSLObject child = (TSLObject)value;
+    Object p = child.parents;
+    if(p == null)
+    {
+      child.parents = this;
+      return;
+    }
+    if(p == this)
+    {
+      return;
+    }
+    if(p instanceof TSLObject)
+    {
+      child.parents = new TSLObject[] { (TSLObject)p, this };
+      return;
+    }
+    TSLObject[] list = (TSLObject[])p;
+    int free = -1;
+    int i;
+    for(i = 0; i < list.length; i++)
+    {
+      if(list[i] == this)
+      {
+        return;
+      }
+      if(list[i] == null && free < 0)
+      {
+        free = i;
+      }
+    }
+    if(free < 0)
+    {
+      TSLObject[] nlist = new TSLObject[list.length * 2];
+      System.arraycopy(list, 0, nlist, 0, list.length);
+      free = list.length;
+      child.parents = list = nlist;
+    }
+    list[free] = this;
+  }
+
+  // Remove the object from the parents of a removed value, if it's a mutable object.
+  private void unlinkValue(Object value)
+  {
+    if(!(value instanceof TSLObject) || ((TSLObject)value).frozen)
+    {
+      return;
+    }
+    TSLObject child = (TSLObject)value;
+    Object p = child.parents;
+    if(p == this)
+    {
+      child.parents = null;
+    } else if(p instanceof TSLObject[])
+    {
+      TSLObject[] list = (TSLObject[])p;
+      int i;
+      for(i = 0; i < list.length; i++)
+      {
+        if(list[i] == this)
+        {
+          list[i] = null;
+        }
+      }
+    }
+  }
+
+  // Unlink removed values that are no longer contained in the object.
+  private void unlinkRemoved(List<Object> removed)
+  {
+    Map<Object, Boolean> remaining = new IdentityHashMap<Object, Boolean>();
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      if(storage.values[i] instanceof TSLObject)
+      {
+        remaining.put(storage.values[i], Boolean.TRUE);
+      }
+    }
+    for(Object value : removed)
+    {
+      if(!remaining.containsKey(value))
+      {
+        unlinkValue(value);
+      }
+    }
+  }
+
+  // Append all values of another object, keeping their order.
+  void merge(TSLObject obj)
+  {
+    modify();
+    load();
+    obj.load();
+    int i;
+    for(i = 0; i < obj.storage.count; i++)
+    {
+      add(obj.storage.names[i], obj.storage.values[i]);
+    }
+  }
+
+  // Create the values of a lazily loaded object.
+  private void load()
+  {
+    if(tape != null)
+    {
+      loadTape();
+    }
+  }
+
+  // Create the values from the tape once, clearing it after the values are complete.
+  // Other threads wait for the values, and never see them partially created.
+  private synchronized void loadTape()
+  {
+    TSLTape t = tape;
+    if(t == null)
+    {
+      return;
+    }
+    int size = 0;
+    int i = tape_start;
+    while(i < tape_end)
+    {
+      size++;
+      i = t.getKind(i) == TSLTape.STRING ? i + 1 : t.getObjectEnd(i);
+    }
+    storage.names = new String[size];
+    storage.values = new Object[size];
+    i = tape_start;
+    while(i < tape_end)
+    {
+      if(t.getKind(i) == TSLTape.STRING)
+      {
+        add(t.names[i], t.getString(i));
+        i++;
+      } else
+      {
+        int end = t.getObjectEnd(i);
+        add(t.names[i], new TSLObject(t, t.getObjectStart(i), end));
+        i = end;
+      }
+    }
+    tape = null;
+  }
+
+  static private int hashName(String name)
+  {
+    int h = name.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  // Find the name index slot of a name, or the empty slot where it would be added.
+  private int findSlot(String name)
+  {
+    int mask = storage.index_first.length - 1;
+    int slot = hashName(name) & mask;
+    while(true)
+    {
+      int first = storage.index_first[slot];
+      if(first == 0 || name.equals(storage.names[first - 1]))
+      {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  // Add a value to the name index.
+  private void indexValue(int i)
+  {
+    int slot = findSlot(storage.names[i]);
+    storage.index_next[i] = -1;
+    if(storage.index_first[slot] == 0)
+    {
+      storage.index_first[slot] = i + 1;
+    } else
+    {
+      storage.index_next[storage.index_last[slot] - 1] = i;
+    }
+    storage.index_last[slot] = i + 1;
+  }
+
+  // Rebuild the name index, or remove it if the object is small.
+  private void buildIndex()
+  {
+    if(storage.count <= INDEX_THRESHOLD)
+    {
+      storage.index_first = null;
+      storage.index_last = null;
+      storage.index_next = null;
+      return;
+    }
+    int size = 16;
+    while(size < storage.values.length * 2)
+    {
+      size *= 2;
+    }
+    storage.index_first = new int[size];
+    storage.index_last = new int[size];
+    storage.index_next = new int[storage.values.length];
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      indexValue(i);
+    }
+  }
+
+  // Make room for more values.
+  private void ensureCapacity(int capacity)
+  {
+    if(capacity <= storage.values.length)
+    {
+      return;
+    }
+    int size = Math.max(4, storage.values.length * 2);
+    if(size < capacity)
+    {
+      size = capacity;
+    }
+    String[] nnames = new String[size];
+    System.arraycopy(storage.names, 0, nnames, 0, storage.count);
+    storage.names = nnames;
+    Object[] nvalues = new Object[size];
+    System.arraycopy(storage.values, 0, nvalues, 0, storage.count);
+    storage.values = nvalues;
+    if(storage.typed != null)
+    {
+      TypedValue[] ntyped = new TypedValue[size];
+      System.arraycopy(storage.typed, 0, ntyped, 0, storage.count);
+      storage.typed = ntyped;
+    }
+    if(storage.index_first != null)
+    {
+      buildIndex();
+    }
+  }
+
+  // Release unused capacity.
+  private void trim()
+  {
+    if(storage.count < storage.values.length)
+    {
+      String[] nnames = new String[storage.count];
+      System.arraycopy(storage.names, 0, nnames, 0, storage.count);
+      storage.names = nnames;
+      Object[] nvalues = new Object[storage.count];
+      System.arraycopy(storage.values, 0, nvalues, 0, storage.count);
+      storage.values = nvalues;
+      storage.typed = null;
+      if(storage.index_first != null)
+      {
+        buildIndex();
+      }
+    }
+  }
+
+  // Add a value without validating the name.
+  private void add(String name, Object value)
+  {
+    linkValue(value);
+    ensureCapacity(storage.count + 1);
+    storage.names[storage.count] = name;
+    storage.values[storage.count] = value;
+    if(value instanceof TSLObject)
+    {
+      storage.object_count++;
+    }
+    storage.count++;
+    if(storage.index_first != null)
+    {
+      indexValue(storage.count - 1);
+    } else if(storage.count > INDEX_THRESHOLD)
+    {
+      buildIndex();
+    }
+  }
+
+  // Remove the values for which remove[i] is true.
+  private void removeValues(boolean[] remove)
+  {
+    List<Object> removed = null;
+    int j = 0;
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      if(remove[i])
+      {
+        if(storage.values[i] instanceof TSLObject)
+        {
+          storage.object_count--;
+          if(removed == null)
+          {
+            removed = new ArrayList<Object>();
+          }
+          removed.add(storage.values[i]);
+        }
+      } else
+      {
+        storage.names[j] = storage.names[i];
+        storage.values[j] = storage.values[i];
+        j++;
+      }
+    }
+    for(i = j; i < storage.count; i++)
+    {
+      storage.names[i] = null;
+      storage.values[i] = null;
+    }
+    storage.count = j;
+    storage.typed = null;
+    if(storage.index_first != null)
+    {
+      buildIndex();
+    }
+    if(removed != null)
+    {
+      unlinkRemoved(removed);
+    }
+  }
+
+  // Get the first value with the specified name, -1 if none exist.
+  private int findFirst(String name)
+  {
+    if(storage.index_first != null)
+    {
+      return storage.index_first[findSlot(name)] - 1;
+    }
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      if(name.equals(storage.names[i]))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Get the next value with the same name as a value, -1 if none exist.
+  private int findNext(int i)
+  {
+    if(storage.index_first != null)
+    {
+      return storage.index_next[i];
+    }
+    String name = storage.names[i];
+    int j;
+    for(j = i + 1; j < storage.count; j++)
+    {
+      if(name.equals(storage.names[j]))
+      {
+        return j;
+      }
+    }
+    return -1;
+  }
+
+  // Get the first value of a kind with the specified name, -1 if none exist.
+  private int findFirst(String name, boolean object)
+  {
+    load();
+    if(name == null)
+    {
+      return -1;
+    }
+    int i = findFirst(name);
+    while(i >= 0 && (storage.values[i] instanceof TSLObject) != object)
+    {
+      i = findNext(i);
+    }
+    return i;
+  }
+
+  // Get the next value of the same name and kind as a value, -1 if none exist.
+  private int findNext(int i, boolean object)
+  {
+    do
+    {
+      i = findNext(i);
+    } while(i >= 0 && (storage.values[i] instanceof TSLObject) != object);
+    return i;
+  }
+
+  // Get all strings with the specified name, null if none exist.
+  private List<String> findStrings(String name)
+  {
+    int i = findFirst(name, false);
+    if(i < 0)
+    {
+      return null;
+    }
+    List<String> result = new ArrayList<String>();
+    for(; i >= 0; i = findNext(i, false))
+    {
+      result.add(stringValue(storage.values[i]));
+    }
+    return result;
+  }
+
+  // Get all objects with the specified name, null if none exist.
+  private List<TSLObject> findObjects(String name)
+  {
+    int i = findFirst(name, true);
+    if(i < 0)
+    {
+      return null;
+    }
+    List<TSLObject> result = new ArrayList<TSLObject>();
+    for(; i >= 0; i = findNext(i, true))
+    {
+      result.add((TSLObject)storage.values[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Get the number of values.
+   */
+  int getValueCount()
+  {
+    load();
+    return storage.count;
+  }
+
+  /**
+   * Get the number of values of a kind with the specified name.
+   */
+  int getValueCount(String name, boolean object)
+  {
+    int n = 0;
+    int i;
+    for(i = findFirst(name, object); i >= 0; i = findNext(i, object))
+    {
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Remove the values of a kind with the specified name, except the first ones.
+   * @param keep Number of values to keep.
+   */
+  void truncateValues(String name, boolean object, int keep)
+  {
+    modify();
+    boolean[] remove = null;
+    int n = 0;
+    int i;
+    for(i = findFirst(name, object); i >= 0; i = findNext(i, object))
+    {
+      if(n++ >= keep)
+      {
+        if(remove == null)
+        {
+          remove = new boolean[storage.count];
+        }
+        remove[i] = true;
+      }
+    }
+    if(remove != null)
+    {
+      removeValues(remove);
+    }
+  }
+
+  /**
+   * Replace an object with the specified name, keeping its position.
+   * @param index Index of the object in the name's object list.
+   */
+  void setObject(String name, int index, TSLObject obj)
+  {
+    modify();
+    int i = findFirst(name, true);
+    int n;
+    for(n = 0; i >= 0 && n < index; n++)
+    {
+      i = findNext(i, true);
+    }
+    if(i < 0 || index < 0)
+    {
+      throw new IndexOutOfBoundsException("No TSL Object at index " + index + ": '" + name + "'.");
+    }
+    List<Object> removed = Collections.<Object>singletonList(storage.values[i]);
+    linkValue(obj);
+    storage.values[i] = obj;
+    unlinkRemoved(removed);
+  }
+
+  /**
+   * Replace the strings with the specified name in [start, start + remove) with new strings.
+   * Replaced strings keep their positions, extra new strings are inserted before the name's next string,
+   * or appended if it has none, and extra replaced strings are removed.
+   * The range must be within the name's strings.
+   */
+  void spliceStrings(String name, int start, int remove, List<String> insert)
+  {
+    modify();
+    load();
+    int replaced = Math.min(remove, insert.size());
+    int end = start + remove;
+    int size = storage.count - remove + insert.size();
+    String[] nnames = new String[size];
+    Object[] nvalues = new Object[size];
+    int j = 0;
+    int n = 0;
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      Object value = storage.values[i];
+      if(!(value instanceof TSLObject) && name.equals(storage.names[i]))
+      {
+        if(n == end)
+        {
+          j = insertStrings(nnames, nvalues, j, name, insert, replaced);
+        }
+        if(n >= start && n < end)
+        {
+          if(n - start >= replaced)
+          {
+            n++;
+            continue;
+          }
+          value = insert.get(n - start);
+        }
+        n++;
+      }
+      nnames[j] = storage.names[i];
+      nvalues[j] = value;
+      j++;
+    }
+    if(n == end)
+    {
+      insertStrings(nnames, nvalues, j, name, insert, replaced);
+    }
+    storage.names = nnames;
+    storage.values = nvalues;
+    storage.count = size;
+    storage.typed = null;
+    buildIndex();
+  }
+
+  // Copy the strings from an index of a list to the value arrays, returning the position after them.
+  static private int insertStrings(String[] names, Object[] values, int j, String name, List<String> insert, int from)
+  {
+    int i;
+    for(i = from; i < insert.size(); i++)
+    {
+      names[j] = name;
+      values[j] = insert.get(i);
+      j++;
+    }
+    return j;
+  }
+
+  /**
+   * Reorder the values, keeping the order of the values of each kind and name.
+   * @param order_names Name of each value in the new order.
+   * @param order_objects Kind of each value in the new order, true for objects.
+   * @return false if the names and kinds are not those of the values, the object is not changed.
+   */
+  boolean reorder(String[] order_names, boolean[] order_objects)
+  {
+    modify();
+    load();
+    if(order_names.length != storage.count)
+    {
+      return false;
+    }
+    // Position of the last value taken of each name and kind.
+    Map<String, Integer> strings = new HashMap<String, Integer>();
+    Map<String, Integer> objects = new HashMap<String, Integer>();
+    String[] nnames = new String[storage.count];
+    Object[] nvalues = new Object[storage.count];
+    int p;
+    for(p = 0; p < order_names.length; p++)
+    {
+      String name = order_names[p];
+      boolean object = order_objects[p];
+      Map<String, Integer> taken = object ? objects : strings;
+      Integer last = taken.get(name);
+      int i = last == null ? findFirst(name, object) : findNext(last, object);
+      if(i < 0)
+      {
+        return false;
+      }
+      taken.put(name, i);
+      nnames[p] = storage.names[i];
+      nvalues[p] = storage.values[i];
+    }
+    storage.names = nnames;
+    storage.values = nvalues;
+    storage.typed = null;
+    buildIndex();
+    return true;
+  }
+
+  /**
+   * Get the name of a value, in insertion order.
+   */
+  String getValueName(int i)
+  {
+    load();
+    return storage.names[i];
+  }
+
+  /**
+   * Check if a value is an object, in insertion order.
+   */
+  boolean isObjectValue(int i)
+  {
+    load();
+    return storage.values[i] instanceof TSLObject;
+  }
+
+  /**
+   * Write a value in insertion order.
+   */
+  void writeValue(TSLWriter writer, int i) throws IOException
+  {
+    Object value = storage.values[i];
+    if(value instanceof TSLObject)
+    {
+      ((TSLObject)value).write(writer, storage.names[i]);
+    } else if(value instanceof TSLByteArena.Slice)
+    {
+      TSLByteArena.Slice slice = (TSLByteArena.Slice)value;
+      writer.putUTF8String(storage.names[i], slice.bytes, slice.offset, slice.length);
+    } else
+    {
+      writer.putString(storage.names[i], (String)value);
+    }
+  }
+
+  // Get a string value as a String.
+  static private String stringValue(Object value)
+  {
+    if(value instanceof TSLByteArena.Slice)
+    {
+      return ((TSLByteArena.Slice)value).decode();
+    }
+    return (String)value;
+  }
+
+  // Compare two values, strings are compared by content however they are stored.
+  static private boolean valueEquals(Object a, Object b)
+  {
+    if(a == b)
+    {
+      return true;
+    }
+    if(a == null || b == null)
+    {
+      return false;
+    }
+    if(a instanceof TSLByteArena.Slice)
+    {
+      if(b instanceof TSLByteArena.Slice)
+      {
+        return ((TSLByteArena.Slice)a).contentEquals((TSLByteArena.Slice)b);
+      }
+      a = ((TSLByteArena.Slice)a).decode();
+    } else if(b instanceof TSLByteArena.Slice)
+    {
+      b = ((TSLByteArena.Slice)b).decode();
+    }
+    return a.equals(b);
+  }
+
+
   /**
    * Remove all values.
    */
   public void clear()
   {
-    strings_map.clear();
-    objects_map.clear();
+    modify();
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      unlinkValue(storage.values[i]);
+    }
+    tape = null;
+    storage.names = NO_NAMES;
+    storage.values = NO_VALUES;
+    storage.count = 0;
+    storage.object_count = 0;
+    storage.index_first = null;
+    storage.index_last = null;
+    storage.index_next = null;
+    storage.typed = null;
   }
   
   /**
@@ -46,10 +1025,23 @@ public class TSLObject
    */
   public TSLObject(TSLReader reader) throws InvalidTSLException, IOException
   {
-    strings_map = new HashMap<String, List<String>>();
-    objects_map = new HashMap<String, List<TSLObject>>();
+    storage = new Storage();
+    storage.names = NO_NAMES;
+    storage.values = NO_VALUES;
+    frozen = false;
+    content_hash = 0;
+    tape_start = 0;
+    tape_end = 0;
+    checkReaderState(reader);
+    loadValues(reader, false, null);
+  }
 
-    loadFromReader(reader);
+  static private void checkReaderState(TSLReader reader)
+  {
+    if(reader.getState() != TSLReader.State.OBJECT)
+    {
+      throw new IllegalStateException("Current value is not a TSL Object");
+    }
   }
 
   /**
@@ -61,11 +1053,49 @@ public class TSLObject
   public void loadFromReader(TSLReader reader) throws InvalidTSLException, IOException
   {
     clear();
+    checkReaderState(reader);
+    loadValues(reader, false, null);
+  }
 
-    if(reader.getState() != TSLReader.State.OBJECT)
+  // Load the values of the object the reader is on, storing strings as UTF-8 if utf8 is true.
+  private void loadValues(TSLReader reader, boolean utf8, TSLByteArena arena) throws InvalidTSLException, IOException
+  {
+    while(true)
     {
-      throw new IllegalStateException("Current value is not a TSL Object");
+      reader.moveNext();
+
+      switch(reader.getState())
+      {
+        case STRING:
+          if(!utf8)
+          {
+            add(reader.getName(), reader.getString());
+          } else if(arena != null)
+          {
+            add(reader.getName(), arena.add(reader.getValueChars()));
+          } else
+          {
+            add(reader.getName(), TSLByteArena.encode(reader.getValueChars()));
+          }
+          break;
+        case OBJECT:
+          String name = reader.getName();
+          TSLObject obj = new TSLObject();
+          obj.loadValues(reader, utf8, arena);
+          add(name, obj);
+          break;
+        case ENDOBJECT:
+          trim();
+          return;
+        default:
+          assert false;
+      }
     }
+  }
+
+  // Load the values of the object the reader is on, interning strings and child objects.
+  private void loadCanonicalValues(TSLReader reader, TSLInternTable table) throws InvalidTSLException, IOException
+  {
     while(true)
     {
       reader.moveNext();
@@ -73,10 +1103,13 @@ public class TSLObject
       switch(reader.getState())
       {
         case STRING:
-          putString(reader.getName(), reader.getString());
+          add(reader.getName(), table.intern(reader.getString()));
           break;
         case OBJECT:
-          putObject(reader.getName(), new TSLObject(reader));
+          String name = reader.getName();
+          TSLObject obj = new TSLObject();
+          obj.loadCanonicalValues(reader, table);
+          add(name, table.intern(obj));
           break;
         case ENDOBJECT:
           return;
@@ -93,7 +1126,7 @@ public class TSLObject
    */
   public List<String> getStringList(String name)
   {
-    List<String> child = strings_map.get(name);
+    List<String> child = findStrings(name);
     if(child == null)
     {
       child = new ArrayList<String>();
@@ -108,50 +1141,127 @@ public class TSLObject
    */
   public List<TSLObject> getObjectList(String name)
   {
-    List<TSLObject> child = objects_map.get(name);
+    List<TSLObject> child = findObjects(name);
     if(child == null)
     {
-      child = new ArrayList<TSLObject>();
+      child = new ArrayList<TSLObject>();
+    }
+    return Collections.unmodifiableList(child);
+  }
+
+  /**
+   * Returns the first instance of an object with the specified name.
+   * @param name Name of object.
+   * @return First object with the specified name, null if no object with the spcified name exists.
+   */
+  public TSLObject getObject(String name)
+  {
+    int i = findFirst(name, true);
+    if(i < 0)
+    {
+      return null;
+    }
+    return (TSLObject)storage.values[i];
+  }
+
+
+
+  /**
+   * Puts a string.
+   * @throws IllegalArugmentException if the name is invalid.
+   * @param name Name of the string.
+   * @param value Value to put.
+   */
+  public void putString(String name, String value)
+  {
+    modify();
+    TSLUtil.validateValueName(name);
+    load();
+    add(name, value);
+  }
+
+  /**
+   * Value parsed from a string.
+   */
+  static private final class TypedValue
+  {
+    // String value the value was parsed from.
+    final Object source;
+    final Class<?> type;
+    // Parsed value, or null if the string is not a valid value of the type.
+    final Object value;
+
+    TypedValue(Object source, Class<?> type, Object value)
+    {
+      this.source = source;
+      this.type = type;
+      this.value = value;
     }
-    return Collections.unmodifiableList(child);
   }
 
-  /**
-   * Returns the first instance of an object with the specified name.
-   * @param name Name of object.
-   * @return First object with the specified name, null if no object with the spcified name exists.
-   */
-  public TSLObject getObject(String name)
+  static private Object parseTypedValue(String str, Class<?> type)
   {
-    List<TSLObject> child = objects_map.get(name);
-    if(child == null || child.size() < 1)
+    if(str == null)
+    {
+      return null;
+    }
+    try
+    {
+      if(type == Integer.class)
+      {
+        return Integer.valueOf(str);
+      } else if(type == Long.class)
+      {
+        return Long.valueOf(str);
+      } else if(type == Double.class)
+      {
+        return Double.valueOf(str);
+      } else if(type == Float.class)
+      {
+        return Float.valueOf(str);
+      } else if(type == Short.class)
+      {
+        return Short.valueOf(str);
+      } else if(type == Byte.class)
+      {
+        return Byte.valueOf(str);
+      } else
+      {
+        return new BigDecimal(str);
+      }
+    } catch(NumberFormatException e)
     {
       return null;
     }
-    return child.get(0);
   }
 
-
-
   /**
-   * Puts a string.
-   * @throws IllegalArugmentException if the name is invalid.
-   * @param name Name of the string.
-   * @param value Value to put.
+   * Get the first string of a name parsed as a type.
+   * The parsed value is cached with the string value.
+   * Frozen objects share their cache between threads, which is safe since cached values are immutable.
+   * @return Parsed value, or null if not found or not a valid value.
    */
-  public void putString(String name, String value)
+  private Object getTypedValue(String name, Class<?> type)
   {
-    TSLUtil.validateValueName(name);
-    List<String> list = strings_map.get(name);
-    if(list == null)
+    int i = findFirst(name, false);
+    if(i < 0)
     {
-      list = new ArrayList<String>();
-      list.add(value);
-      strings_map.put(name, list);
-    } else
+      return null;
+    }
+    Object str = storage.values[i];
+    TypedValue[] cache = storage.typed;
+    if(cache == null)
+    {
+      cache = new TypedValue[storage.values.length];
+      storage.typed = cache;
+    }
+    TypedValue value = cache[i];
+    if(value == null || value.type != type || value.source != str)
     {
-      list.add(value);
+      value = new TypedValue(str, type, parseTypedValue(stringValue(str), type));
+      cache[i] = value;
     }
+    return value.value;
   }
 
   /**
@@ -243,6 +1353,60 @@ public class TSLObject
     putString(name,value.toPlainString());
   }
 
+  /**
+   * Puts integers represented as strings, in array order.
+   * @throws IllegalArugmentException if the name is invalid.
+   * @param name Name of the strings.
+   * @param values Values to put.
+   */
+  public void putStrings(String name, int[] values)
+  {
+    modify();
+    TSLUtil.validateValueName(name);
+    load();
+    ensureCapacity(storage.count + values.length);
+    for(int value : values)
+    {
+      add(name, String.valueOf(value));
+    }
+  }
+
+  /**
+   * Puts longs represented as strings, in array order.
+   * @throws IllegalArugmentException if the name is invalid.
+   * @param name Name of the strings.
+   * @param values Values to put.
+   */
+  public void putStrings(String name, long[] values)
+  {
+    modify();
+    TSLUtil.validateValueName(name);
+    load();
+    ensureCapacity(storage.count + values.length);
+    for(long value : values)
+    {
+      add(name, String.valueOf(value));
+    }
+  }
+
+  /**
+   * Puts doubles represented as strings, in array order.
+   * @throws IllegalArugmentException if the name is invalid.
+   * @param name Name of the strings.
+   * @param values Values to put.
+   */
+  public void putStrings(String name, double[] values)
+  {
+    modify();
+    TSLUtil.validateValueName(name);
+    load();
+    ensureCapacity(storage.count + values.length);
+    for(double value : values)
+    {
+      add(name, String.valueOf(value));
+    }
+  }
+
   /**
    * Puts an object.
    * @throws IllegalArugmentException if the name is invalid.
@@ -250,17 +1414,14 @@ public class TSLObject
    */
   public void putObject(String name,TSLObject obj)
   {
+    modify();
     TSLUtil.validateValueName(name);
-    List<TSLObject> list = objects_map.get(name);
-    if(list == null)
-    {
-      list = new ArrayList<TSLObject>();
-      list.add(obj);
-      objects_map.put(name, list);
-    } else
+    if(obj == null)
     {
-      list.add(obj);
+      throw new IllegalArgumentException("Invalid TSL Object: null.");
     }
+    load();
+    add(name, obj);
   }
 
   /**
@@ -269,8 +1430,36 @@ public class TSLObject
    */
   public void removeValues(String name)
   {
-    strings_map.remove(name);
-    objects_map.remove(name);
+    modify();
+    load();
+    int i = findFirst(name);
+    if(i < 0)
+    {
+      return;
+    }
+    boolean[] remove = new boolean[storage.count];
+    for(; i >= 0; i = findNext(i))
+    {
+      remove[i] = true;
+    }
+    removeValues(remove);
+  }
+
+  // Remove the first value of a kind with the specified name that is equal to a value.
+  private void removeValue(String name, Object value, boolean object)
+  {
+    modify();
+    int i;
+    for(i = findFirst(name, object); i >= 0; i = findNext(i, object))
+    {
+      if(valueEquals(value, storage.values[i]))
+      {
+        boolean[] remove = new boolean[storage.count];
+        remove[i] = true;
+        removeValues(remove);
+        return;
+      }
+    }
   }
 
   /**
@@ -279,15 +1468,7 @@ public class TSLObject
    */
   public void removeValues(String name, String str)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list != null)
-    {
-      value_list.remove(str);
-      if(value_list.isEmpty())
-      {
-        strings_map.remove(name);
-      }
-    }
+    removeValue(name, str, false);
   }
 
   /**
@@ -296,19 +1477,12 @@ public class TSLObject
    */
   public void removeValues(String name, TSLObject obj)
   {
-    List<TSLObject> collection_list = objects_map.get(name);
-    if(collection_list != null)
-    {
-      collection_list.remove(obj);
-      if(collection_list.isEmpty())
-      {
-        objects_map.remove(name);
-      }
-    }
+    removeValue(name, obj, true);
   }
 
   /**
    * Writes the Object to a TSLWriter.
+   * Values are written in insertion order.
    * Does nothing if the object is empty.
    * @param writer Destination TSL writer.
    * @param name Name for the object.
@@ -316,41 +1490,113 @@ public class TSLObject
    */
   public void write(TSLWriter writer,String name) throws IOException
   {
-    if(objects_map.isEmpty() && strings_map.isEmpty())
+    load();
+    if(storage.count == 0)
     {
       return;
     }
     TSLUtil.validateValueName(name);
     writer.startObject(name);
     writer.pushFormatter();
-    writer.getFormatter().setNewLine(!objects_map.isEmpty());
-    for(Map.Entry<String, List<String>> child : strings_map.entrySet())
+    writer.getFormatter().setNewLine(storage.object_count > 0);
+    int i;
+    for(i = 0; i < storage.count; i++)
     {
-      String child_name = child.getKey();
-      for(String value : child.getValue())
-      {
-        writer.putString(child_name, value);
-      }
+      writeValue(writer, i);
+    }
+    writer.endObject();
+    writer.popFormatter();
+  }
+
+  // Check if a value is the first of its kind with its name.
+  private boolean isFirst(int i)
+  {
+    boolean object = storage.values[i] instanceof TSLObject;
+    return findFirst(storage.names[i], object) == i;
+  }
+
+  // Mix the bits of a hash.
+  static private long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // Hash a value, strings hash the same however they are stored.
+  static private long valueHash(Object value)
+  {
+    if(value instanceof TSLObject)
+    {
+      return ((TSLObject)value).getContentHash();
+    }
+    if(value instanceof TSLByteArena.Slice)
+    {
+      value = ((TSLByteArena.Slice)value).decode();
+    }
+    return mix(value == null ? 0 : value.hashCode());
+  }
+
+  // Hash of the values of a kind with the same name, starting at a value.
+  private long hashList(int i)
+  {
+    boolean object = storage.values[i] instanceof TSLObject;
+    long hash = mix(storage.names[i].hashCode() * 2L + (object ? 1 : 0));
+    for(; i >= 0; i = findNext(i, object))
+    {
+      hash = hash * 0x9E3779B97F4A7C15L + valueHash(storage.values[i]);
     }
-    for(Map.Entry<String, List<TSLObject>> child : objects_map.entrySet())
+    return mix(hash);
+  }
+
+  // Hash the object's content, the order of different names doesn't affect the hash.
+  private long computeHash()
+  {
+    long hash = storage.count;
+    int i;
+    for(i = 0; i < storage.count; i++)
     {
-      for(TSLObject collection : child.getValue())
+      if(isFirst(i))
       {
-        collection.write(writer,child.getKey());
+        hash += hashList(i);
       }
     }
-    writer.endObject();
-    writer.popFormatter();
+    return hash;
+  }
+
+  /**
+   * Get a 64 bit hash of the object's content, for detecting changes to the object and its child objects.
+   * Equal objects have equal content hashes.
+   * A frozen object's hash is computed when it's frozen, and never changes.
+   * A mutable object's hash is computed when it's first requested and cached until the object
+   * or one of its child objects is modified, only the modified objects and the objects containing them are hashed again.
+   * @return Content hash.
+   */
+  public long getContentHash()
+  {
+    if(frozen)
+    {
+      return content_hash;
+    }
+    if(hash_cached)
+    {
+      return cached_hash;
+    }
+    load();
+    long hash = computeHash();
+    cached_hash = hash;
+    hash_cached = true;
+    return hash;
   }
 
   @Override
   public int hashCode()
   {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + objects_map.hashCode();
-    result = prime * result + strings_map.hashCode();
-    return result;
+    long hash = getContentHash();
+    return (int)(hash ^ (hash >>> 32));
   }
 
   @Override
@@ -369,7 +1615,43 @@ public class TSLObject
       return false;
     }
     TSLObject other = (TSLObject) obj;
-    return objects_map.equals(other.objects_map) && strings_map.equals(other.strings_map);
+    if((frozen || hash_cached) && (other.frozen || other.hash_cached) && getContentHash() != other.getContentHash())
+    {
+      return false;
+    }
+    load();
+    other.load();
+    if(storage.count != other.storage.count || storage.object_count != other.storage.object_count)
+    {
+      return false;
+    }
+    // Compare the values of each kind and name in order.
+    // All values are matched if the counts are equal and no value is left over.
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      if(!isFirst(i))
+      {
+        continue;
+      }
+      boolean object = storage.values[i] instanceof TSLObject;
+      int j = i;
+      int k = other.findFirst(storage.names[i], object);
+      while(j >= 0 && k >= 0)
+      {
+        if(!valueEquals(storage.values[j], other.storage.values[k]))
+        {
+          return false;
+        }
+        j = findNext(j, object);
+        k = other.findNext(k, object);
+      }
+      if(j >= 0 || k >= 0)
+      {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -381,12 +1663,12 @@ public class TSLObject
    */
   public String getString(String name, String def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
+    int i = findFirst(name, false);
+    if(i < 0)
     {
       return def;
     }
-    return value_list.get(0);
+    return stringValue(storage.values[i]);
   }
 
   /**
@@ -398,13 +1680,8 @@ public class TSLObject
    */
   public char getStringAsChar(String name, char def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    String value = value_list.get(0);
-    if(value.length() != 1)
+    String value = getString(name, null);
+    if(value == null || value.length() != 1)
     {
       return def;
     }
@@ -420,18 +1697,12 @@ public class TSLObject
    */
   public byte getStringAsByte(String name, byte def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return Byte.valueOf(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, Byte.class);
+    if(value == null)
     {
       return def;
     }
+    return (Byte)value;
   }
 
   /**
@@ -443,18 +1714,12 @@ public class TSLObject
    */
   public short getStringAsShort(String name, short def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return Short.valueOf(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, Short.class);
+    if(value == null)
     {
       return def;
     }
+    return (Short)value;
   }
   
   /**
@@ -466,18 +1731,12 @@ public class TSLObject
    */
   public int getStringAsInt(String name, int def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return Integer.valueOf(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, Integer.class);
+    if(value == null)
     {
       return def;
     }
+    return (Integer)value;
   }
 
   /**
@@ -489,18 +1748,12 @@ public class TSLObject
    */
   public long getStringAsLong(String name, long def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return Long.valueOf(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, Long.class);
+    if(value == null)
     {
       return def;
     }
+    return (Long)value;
   }
   
   /**
@@ -512,18 +1765,12 @@ public class TSLObject
    */
   public float getStringAsFloat(String name, float def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return Float.valueOf(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, Float.class);
+    if(value == null)
     {
       return def;
     }
+    return (Float)value;
   }
 
   /**
@@ -535,18 +1782,12 @@ public class TSLObject
    */
   public double getStringAsDouble(String name, double def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return Double.valueOf(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, Double.class);
+    if(value == null)
     {
       return def;
     }
+    return (Double)value;
   }
 
   /**
@@ -558,18 +1799,12 @@ public class TSLObject
    */
   public BigDecimal getStringAsBigDecimal(String name, BigDecimal def)
   {
-    List<String> value_list = strings_map.get(name);
-    if(value_list == null)
-    {
-      return def;
-    }
-    try
-    {
-      return new BigDecimal(value_list.get(0));
-    } catch(NumberFormatException e)
+    Object value = getTypedValue(name, BigDecimal.class);
+    if(value == null)
     {
       return def;
     }
+    return (BigDecimal)value;
   }
 
   
@@ -581,7 +1816,7 @@ public class TSLObject
    */
   public ArrayList<Byte> getStringAsByteList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<Byte> result = new ArrayList<Byte>();
     if(value_list == null)
     {
@@ -608,7 +1843,7 @@ public class TSLObject
    */
   public ArrayList<Short> getStringAsShortList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<Short> result = new ArrayList<Short>();
     if(value_list == null)
     {
@@ -635,7 +1870,7 @@ public class TSLObject
    */
   public ArrayList<Integer> getStringAsIntegerList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<Integer> result = new ArrayList<Integer>();
     if(value_list == null)
     {
@@ -662,7 +1897,7 @@ public class TSLObject
    */
   public ArrayList<Long> getStringAsLongList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<Long> result = new ArrayList<Long>();
     if(value_list == null)
     {
@@ -689,7 +1924,7 @@ public class TSLObject
    */
   public ArrayList<Float> getStringAsFloatList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<Float> result = new ArrayList<Float>();
     if(value_list == null)
     {
@@ -698,6 +1933,10 @@ public class TSLObject
     
     for(String val:value_list)
     {
+      if(val == null)
+      {
+        continue;
+      }
       try
       {
         result.add(Float.valueOf(val));
@@ -717,7 +1956,7 @@ public class TSLObject
    */
   public ArrayList<Double> getStringAsDoubleList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<Double> result = new ArrayList<Double>();
     if(value_list == null)
     {
@@ -726,6 +1965,10 @@ public class TSLObject
     
     for(String val:value_list)
     {
+      if(val == null)
+      {
+        continue;
+      }
       try
       {
         result.add(Double.valueOf(val));
@@ -735,6 +1978,119 @@ public class TSLObject
     }
     return result;
   }
+
+  // Shrink an array to the number of valid values.
+  static private int[] trim(int[] values, int count)
+  {
+    if(count == values.length)
+    {
+      return values;
+    }
+    int[] result = new int[count];
+    System.arraycopy(values, 0, result, 0, count);
+    return result;
+  }
+
+  static private long[] trim(long[] values, int count)
+  {
+    if(count == values.length)
+    {
+      return values;
+    }
+    long[] result = new long[count];
+    System.arraycopy(values, 0, result, 0, count);
+    return result;
+  }
+
+  static private double[] trim(double[] values, int count)
+  {
+    if(count == values.length)
+    {
+      return values;
+    }
+    double[] result = new double[count];
+    System.arraycopy(values, 0, result, 0, count);
+    return result;
+  }
+
+  /**
+   * Gets all strings of the same name as an int array, without boxing.
+   * Values are parsed in place, without creating a list first.
+   * Values that are not valid ints are skipped.
+   * @param name Name of the value.
+   * @return Values as an int array.
+   */
+  public int[] getStringAsIntArray(String name)
+  {
+    int[] result = new int[getValueCount(name, false)];
+    int count = 0;
+    int i;
+    for(i = findFirst(name, false); i >= 0; i = findNext(i, false))
+    {
+      String val = stringValue(storage.values[i]);
+      if(val == null)
+      {
+        continue;
+      }
+      long value = TSLUtil.accumulateLong(val, Integer.MIN_VALUE, Integer.MAX_VALUE);
+      if(value <= 0)
+      {
+        result[count++] = (int)(val.charAt(0) == '-' ? value : -value);
+      }
+    }
+    return trim(result, count);
+  }
+
+  /**
+   * Gets all strings of the same name as a long array, without boxing.
+   * Values are parsed in place, without creating a list first.
+   * Values that are not valid longs are skipped.
+   * @param name Name of the value.
+   * @return Values as a long array.
+   */
+  public long[] getStringAsLongArray(String name)
+  {
+    long[] result = new long[getValueCount(name, false)];
+    int count = 0;
+    int i;
+    for(i = findFirst(name, false); i >= 0; i = findNext(i, false))
+    {
+      String val = stringValue(storage.values[i]);
+      if(val == null)
+      {
+        continue;
+      }
+      long value = TSLUtil.accumulateLong(val, Long.MIN_VALUE, Long.MAX_VALUE);
+      if(value <= 0)
+      {
+        result[count++] = val.charAt(0) == '-' ? value : -value;
+      }
+    }
+    return trim(result, count);
+  }
+
+  /**
+   * Gets all strings of the same name as a double array, without boxing.
+   * Values are parsed in place, without creating a list first.
+   * Values that are not valid doubles are skipped.
+   * @param name Name of the value.
+   * @return Values as a double array.
+   */
+  public double[] getStringAsDoubleArray(String name)
+  {
+    double[] result = new double[getValueCount(name, false)];
+    int count = 0;
+    int i;
+    for(i = findFirst(name, false); i >= 0; i = findNext(i, false))
+    {
+      String val = stringValue(storage.values[i]);
+      if(val != null && TSLUtil.isValidDouble(val))
+      {
+        result[count++] = TSLUtil.parseDouble(val);
+      }
+    }
+    return trim(result, count);
+  }
   
 
   /**
@@ -745,7 +2101,7 @@ public class TSLObject
    */
   public ArrayList<BigDecimal> getStringAsBigDecimalList(String name)
   {
-    List<String> value_list = strings_map.get(name);
+    List<String> value_list = findStrings(name);
     ArrayList<BigDecimal> result = new ArrayList<BigDecimal>();
     if(value_list == null)
     {
@@ -754,6 +2110,10 @@ public class TSLObject
     
     for(String val:value_list)
     {
+      if(val == null)
+      {
+        continue;
+      }
       try
       {
         result.add(new BigDecimal(val));
@@ -772,7 +2132,7 @@ public class TSLObject
    */
   public Set<String> getStringNames()
   {
-    return Collections.unmodifiableSet(strings_map.keySet());
+    return getNames(false);
   }
 
   /**
@@ -781,6 +2141,22 @@ public class TSLObject
    */
   public Set<String> getObjectNames()
   {
-    return Collections.unmodifiableSet(objects_map.keySet());
+    return getNames(true);
+  }
+
+  // Get the unique names of the values of a kind, in insertion order.
+  private Set<String> getNames(boolean object)
+  {
+    load();
+    Set<String> result = new LinkedHashSet<String>();
+    int i;
+    for(i = 0; i < storage.count; i++)
+    {
+      if((storage.values[i] instanceof TSLObject) == object)
+      {
+        result.add(storage.names[i]);
+      }
+    }
+    return Collections.unmodifiableSet(result);
   }
 }
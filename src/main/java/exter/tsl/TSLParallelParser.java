@@ -0,0 +1,327 @@
+package exter.tsl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Inflater;
+
+/**
+ * Parses the child objects of a TSL file's root object in parallel.
+ * The root object is pre-scanned sequentially to find the file regions of its child objects,
+ * consecutive children are grouped in batches of about 1 MB, and each batch is parsed by a separate task.
+ * Block compressed streams are split by their blocks instead, each block is decompressed and parsed by a separate task.
+ */
+final class TSLParallelParser
+{
+  // Minimum size in bytes of a batch of child objects.
+  static private final long BATCH_SIZE = 1024 * 1024;
+
+  /**
+   * Parses a batch of consecutive child objects from a file region.
+   */
+  static private class Batch implements Callable<List<TSLObject>>
+  {
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final int count;
+
+    Batch(FileChannel channel, long start, long end, int count)
+    {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.count = count;
+    }
+
+    public List<TSLObject> call() throws InvalidTSLException, IOException
+    {
+      List<TSLObject> result = new ArrayList<TSLObject>(count);
+      TSLReader reader = new TSLReader(channel, start, end - start);
+      reader.setNameTable(new TSLNameTable());
+      reader.beginObjectContents();
+      int i;
+      for(i = 0; i < count; i++)
+      {
+        // Skip the root's strings between the child objects.
+        do
+        {
+          reader.moveNext();
+        } while(reader.getState() == TSLReader.State.STRING);
+        result.add(new TSLObject(reader));
+      }
+      return result;
+    }
+  }
+
+  // Maximum number of blocks of a block compressed stream being decompressed at once.
+  static private final int MAX_PENDING_BLOCKS = 64;
+
+  /**
+   * Decompresses and parses a block of a block compressed stream.
+   */
+  static private class Block implements Callable<TSLObject>
+  {
+    private final byte[] data;
+    private final int length;
+
+    Block(byte[] data, int length)
+    {
+      this.data = data;
+      this.length = length;
+    }
+
+    public TSLObject call() throws InvalidTSLException, IOException
+    {
+      // Parse the block's values as the contents of an object "b [ ... ]".
+      Inflater inflater = new Inflater();
+      byte[] text;
+      try
+      {
+        text = TSLBlockInputStream.inflate(inflater, data, length, 3, 1);
+      } finally
+      {
+        inflater.end();
+      }
+      text[0] = 'b';
+      text[1] = ' ';
+      text[2] = '[';
+      text[text.length - 1] = ']';
+      TSLReader reader = new TSLReader(text);
+      reader.moveNext();
+      return new TSLObject(reader);
+    }
+  }
+
+  private final FileChannel channel;
+  private final ExecutorService executor;
+  private final List<Future<List<TSLObject>>> batches;
+
+  // Current batch.
+  private long batch_start;
+  private long batch_end;
+  private int batch_count;
+
+  private TSLParallelParser(FileChannel channel, ExecutorService executor)
+  {
+    this.channel = channel;
+    this.executor = executor;
+    batches = new ArrayList<Future<List<TSLObject>>>();
+    batch_count = 0;
+  }
+
+  private void submitBatch()
+  {
+    if(batch_count > 0)
+    {
+      batches.add(executor.submit(new Batch(channel, batch_start, batch_end, batch_count)));
+      batch_count = 0;
+    }
+  }
+
+  /**
+   * Add a child object region to the current batch.
+   * The region starts at the object's '[' and ends after its ']'.
+   */
+  private void addChild(long start, long end)
+  {
+    if(batch_count == 0)
+    {
+      batch_start = start;
+    }
+    batch_end = end;
+    batch_count++;
+    if(batch_end - batch_start >= BATCH_SIZE)
+    {
+      submitBatch();
+    }
+  }
+
+  /**
+   * Get the exception thrown by a parsing task.
+   * Runtime exceptions and errors are rethrown.
+   */
+  static private InvalidTSLException unwrap(ExecutionException e) throws IOException
+  {
+    Throwable cause = e.getCause();
+    if(cause instanceof InvalidTSLException)
+    {
+      return (InvalidTSLException)cause;
+    }
+    if(cause instanceof IOException)
+    {
+      throw (IOException)cause;
+    }
+    if(cause instanceof RuntimeException)
+    {
+      throw (RuntimeException)cause;
+    }
+    if(cause instanceof Error)
+    {
+      throw (Error)cause;
+    }
+    throw new RuntimeException(cause);
+  }
+
+  private void cancel()
+  {
+    for(Future<List<TSLObject>> batch : batches)
+    {
+      batch.cancel(true);
+    }
+  }
+
+  private TSLObject parse() throws InvalidTSLException, IOException
+  {
+    TSLReader reader = new TSLReader(channel);
+    reader.setNameTable(new TSLNameTable());
+    reader.moveNext();
+    if(reader.getState() != TSLReader.State.OBJECT)
+    {
+      throw new InvalidTSLException("Root value is not a TSL Object.");
+    }
+
+    // Root values in order, strings are stored as is,
+    // objects are stored as their index in the batch results.
+    List<String> names = new ArrayList<String>();
+    List<Object> values = new ArrayList<Object>();
+    int object_count = 0;
+    boolean done = false;
+    try
+    {
+      while(!done)
+      {
+        reader.moveNext();
+        switch(reader.getState())
+        {
+          case STRING:
+            names.add(reader.getName());
+            values.add(reader.getString());
+            break;
+          case OBJECT:
+          {
+            names.add(reader.getName());
+            values.add(Integer.valueOf(object_count++));
+            // Start the region at the '[', batches are parsed as the contents of an object,
+            // with an empty name for the first child.
+            long start = reader.getPosition() - 1;
+            reader.skipObject();
+            addChild(start, reader.getPosition());
+            break;
+          }
+          case ENDOBJECT:
+            done = true;
+            break;
+          default:
+            assert false;
+        }
+      }
+      submitBatch();
+
+      TSLObject root = new TSLObject();
+      int i;
+      int batch = 0;
+      List<TSLObject> batch_result = null;
+      int batch_index = 0;
+      for(i = 0; i < names.size(); i++)
+      {
+        Object value = values.get(i);
+        if(value instanceof String)
+        {
+          root.putString(names.get(i), (String)value);
+        } else
+        {
+          while(batch_result == null || batch_index == batch_result.size())
+          {
+            batch_result = batches.get(batch++).get();
+            batch_index = 0;
+          }
+          root.putObject(names.get(i), batch_result.get(batch_index++));
+        }
+      }
+      return root;
+    } catch(InterruptedException e)
+    {
+      cancel();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing TSL.");
+    } catch(ExecutionException e)
+    {
+      cancel();
+      throw unwrap(e);
+    } catch(InvalidTSLException e)
+    {
+      cancel();
+      throw e;
+    } catch(IOException e)
+    {
+      cancel();
+      throw e;
+    }
+  }
+
+  static private void cancelBlocks(List<Future<TSLObject>> blocks)
+  {
+    for(Future<TSLObject> block : blocks)
+    {
+      block.cancel(true);
+    }
+  }
+
+  /**
+   * Parse a block compressed stream, decompressing and parsing its blocks in parallel.
+   */
+  static TSLObject parseBlocks(InputStream is, ExecutorService executor) throws InvalidTSLException, IOException
+  {
+    TSLBlockInputStream blocks = new TSLBlockInputStream(is);
+    blocks.readHeader();
+    TSLObject root = new TSLObject();
+    LinkedList<Future<TSLObject>> pending = new LinkedList<Future<TSLObject>>();
+    try
+    {
+      byte[] data;
+      while((data = blocks.readBlock()) != null)
+      {
+        if(pending.size() == MAX_PENDING_BLOCKS)
+        {
+          root.merge(pending.removeFirst().get());
+        }
+        pending.add(executor.submit(new Block(data, blocks.getBlockLength())));
+      }
+      while(!pending.isEmpty())
+      {
+        root.merge(pending.removeFirst().get());
+      }
+      return root;
+    } catch(InterruptedException e)
+    {
+      cancelBlocks(pending);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing TSL.");
+    } catch(ExecutionException e)
+    {
+      cancelBlocks(pending);
+      throw unwrap(e);
+    } catch(IOException e)
+    {
+      cancelBlocks(pending);
+      throw e;
+    }
+  }
+
+  /**
+   * Parse a TSL file, parsing the root object's children in parallel.
+   */
+  static TSLObject parse(FileChannel channel, ExecutorService executor) throws InvalidTSLException, IOException
+  {
+    return new TSLParallelParser(channel, executor).parse();
+  }
+}
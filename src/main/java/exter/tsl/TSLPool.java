@@ -0,0 +1,118 @@
+package exter.tsl;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe pool of TSLReader and TSLWriter instances.
+ * Pooled instances keep their internal buffers between uses, so parsing and writing
+ * many small documents allocates little once the pool is warm.
+ * Each pooled reader has its own name table.
+ */
+public class TSLPool
+{
+  // Default maximum number of idle readers and writers.
+  public static final int DEFAULT_MAX_IDLE = 64;
+
+  private final int max_idle;
+  private final Queue<TSLReader> readers;
+  private final Queue<TSLWriter> writers;
+  private final AtomicInteger idle_readers;
+  private final AtomicInteger idle_writers;
+
+  /**
+   * Create a pool with the default maximum number of idle instances.
+   */
+  public TSLPool()
+  {
+    this(DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Create a pool.
+   * @param max_idle Maximum number of idle readers, and of idle writers, kept by the pool.
+   */
+  public TSLPool(int max_idle)
+  {
+    if(max_idle < 0)
+    {
+      throw new IllegalArgumentException("Invalid pool size: " + max_idle + ".");
+    }
+    this.max_idle = max_idle;
+    readers = new ConcurrentLinkedQueue<TSLReader>();
+    writers = new ConcurrentLinkedQueue<TSLWriter>();
+    idle_readers = new AtomicInteger(0);
+    idle_writers = new AtomicInteger(0);
+  }
+
+  /**
+   * Get a reader from the pool, or create one if the pool is empty.
+   * @param is Input stream to read.
+   * @return Reader reset to read the input stream.
+   */
+  public TSLReader acquireReader(InputStream is)
+  {
+    TSLReader reader = readers.poll();
+    if(reader == null)
+    {
+      reader = new TSLReader(is);
+      reader.setNameTable(new TSLNameTable());
+      return reader;
+    }
+    idle_readers.decrementAndGet();
+    reader.reset(is);
+    return reader;
+  }
+
+  /**
+   * Return a reader to the pool.
+   * The reader must not be used after it's released.
+   * @param reader Reader to release.
+   */
+  public void releaseReader(TSLReader reader)
+  {
+    reader.reset((InputStream)null);
+    if(idle_readers.incrementAndGet() > max_idle)
+    {
+      idle_readers.decrementAndGet();
+      return;
+    }
+    readers.offer(reader);
+  }
+
+  /**
+   * Get a writer from the pool, or create one if the pool is empty.
+   * @param os Output stream to write to.
+   * @return Writer reset to write to the output stream.
+   */
+  public TSLWriter acquireWriter(OutputStream os)
+  {
+    TSLWriter writer = writers.poll();
+    if(writer == null)
+    {
+      return new TSLWriter(os);
+    }
+    idle_writers.decrementAndGet();
+    writer.reset(os);
+    return writer;
+  }
+
+  /**
+   * Return a writer to the pool.
+   * The writer must not be used after it's released.
+   * @param writer Writer to release.
+   */
+  public void releaseWriter(TSLWriter writer)
+  {
+    writer.reset((OutputStream)null);
+    if(idle_writers.incrementAndGet() > max_idle)
+    {
+      idle_writers.decrementAndGet();
+      return;
+    }
+    writers.offer(writer);
+  }
+}
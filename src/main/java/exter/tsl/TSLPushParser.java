@@ -0,0 +1,204 @@
+package exter.tsl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental TSL parser that is fed chunks of UTF-8 input as they arrive,
+ * and passes each value to a TSLHandler as soon as it is complete.
+ * The parser keeps its state between chunks, so a value or UTF-8 sequence can span any number of chunks.
+ * Parsing is done by a TSLReader's scanner, so the parser accepts exactly the same input as TSLReader.
+ */
+public class TSLPushParser
+{
+  // Size of the copy buffer for ByteBuffers without an accessible array.
+  private static final int COPY_BUFFER_SIZE = 8192;
+
+  private TSLHandler handler;
+
+  // Scanner, fed the chunks in place.
+  private final TSLReader reader;
+
+  // The scanner is inside a value, waiting for more input.
+  private boolean in_value;
+
+  // UTF-8 sequence split at the end of the last chunk.
+  private final byte[] pending;
+  private int pending_length;
+
+  // Copy buffer for ByteBuffers without an accessible array.
+  private byte[] copy_buffer;
+
+  public TSLPushParser(TSLHandler handler)
+  {
+    reader = new TSLReader(new byte[0]);
+    pending = new byte[4];
+    copy_buffer = null;
+    reset(handler);
+  }
+
+  /**
+   * Reset the parser to the start of a new TSL stream.
+   * @param handler Handler for the new stream.
+   */
+  public void reset(TSLHandler handler)
+  {
+    this.handler = handler;
+    reader.resetState();
+    in_value = false;
+    pending_length = 0;
+  }
+
+  /**
+   * Set the symbol table used for value names.
+   * @param table Name table, or null to create a new String for every name.
+   */
+  public void setNameTable(TSLNameTable table)
+  {
+    reader.setNameTable(table);
+  }
+
+  /**
+   * Check if the root value has been completely parsed.
+   * @return true if the root value has been completely parsed.
+   */
+  public boolean isDone()
+  {
+    return reader.state == TSLReader.State.END;
+  }
+
+  /**
+   * Parse a chunk of input.
+   * Input after the end of the root value is ignored.
+   * @param data Input data.
+   * @param offset Start of the chunk in the input.
+   * @param length Length of the chunk.
+   * @throws InvalidTSLException if a TSL parsing error occurs, the parser must be reset to be used again.
+   * @throws IOException from the handler.
+   */
+  public void feed(byte[] data, int offset, int length) throws InvalidTSLException, IOException
+  {
+    int end = offset + length;
+    if(pending_length > 0)
+    {
+      // Complete the sequence split at the end of the last chunk.
+      int needed = TSLUtil.getUTF8SequenceLength(pending[0]);
+      while(pending_length < needed && offset < end && (data[offset] & 0xC0) == 0x80)
+      {
+        pending[pending_length++] = data[offset++];
+      }
+      if(pending_length < needed && offset == end)
+      {
+        return;
+      }
+      int n = pending_length;
+      pending_length = 0;
+      parse(pending, 0, n);
+    }
+    int split = findSplit(data, offset, end);
+    parse(data, offset, split - offset);
+    while(split < end)
+    {
+      pending[pending_length++] = data[split++];
+    }
+  }
+
+  /**
+   * Parse a chunk of input.
+   * The chunk is consumed from its position to its limit.
+   * @param chunk Input chunk.
+   * @throws InvalidTSLException if a TSL parsing error occurs, the parser must be reset to be used again.
+   * @throws IOException from the handler.
+   */
+  public void feed(ByteBuffer chunk) throws InvalidTSLException, IOException
+  {
+    if(chunk.hasArray())
+    {
+      int length = chunk.remaining();
+      feed(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+      chunk.position(chunk.position() + length);
+      return;
+    }
+    if(copy_buffer == null)
+    {
+      copy_buffer = new byte[COPY_BUFFER_SIZE];
+    }
+    while(chunk.hasRemaining())
+    {
+      int length = Math.min(chunk.remaining(), copy_buffer.length);
+      chunk.get(copy_buffer, 0, length);
+      feed(copy_buffer, 0, length);
+    }
+  }
+
+  /**
+   * Signal the end of the input.
+   * @throws InvalidTSLException if the root value is incomplete.
+   */
+  public void finish() throws InvalidTSLException
+  {
+    pending_length = 0;
+    if(!isDone())
+    {
+      reader.state = TSLReader.State.END;
+      throw new InvalidTSLException("Unexpected end of stream.");
+    }
+  }
+
+  // Get the start of an incomplete UTF-8 sequence at the end of a chunk, or the end of the chunk.
+  static private int findSplit(byte[] data, int offset, int end)
+  {
+    int i = end - 1;
+    int continuations = 0;
+    while(i >= offset && continuations < 3 && (data[i] & 0xC0) == 0x80)
+    {
+      i--;
+      continuations++;
+    }
+    if(i < offset || TSLUtil.getUTF8SequenceLength(data[i]) <= continuations + 1)
+    {
+      return end;
+    }
+    return i;
+  }
+
+  // Scan a chunk, passing the values to the handler as they are completed.
+  private void parse(byte[] data, int offset, int length) throws InvalidTSLException, IOException
+  {
+    reader.setChunk(data, offset, length);
+    while(true)
+    {
+      if(!in_value)
+      {
+        if(!reader.startValue())
+        {
+          return;
+        }
+        in_value = true;
+      }
+      if(!reader.scan())
+      {
+        return;
+      }
+      in_value = false;
+      switch(reader.state)
+      {
+        case STRING:
+          handler.putString(reader.name, reader.getString());
+          break;
+        case OBJECT:
+          handler.startObject(reader.name);
+          break;
+        case ENDOBJECT:
+          handler.endObject();
+          break;
+        case END:
+          // String root value.
+          handler.putString(reader.name, reader.getString());
+          break;
+        default:
+          break;
+      }
+    }
+  }
+}
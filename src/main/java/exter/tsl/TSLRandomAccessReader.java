@@ -0,0 +1,235 @@
+package exter.tsl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads objects from a TSL file using a sidecar index built by TSLIndexBuilder.
+ * Only the region of the requested object is parsed, the rest of the file is not read.
+ * <p>
+ * The index is rejected when it's opened if the file's size, modification time (when recorded),
+ * or the checksum of its first and last 64 KB changed.
+ * Edits in the middle of the file that keep all of them are only detected when a region is read:
+ * a region must still start with the object's '[' and end with its ']', so a region moved by an edit
+ * is rejected, but an edit within a region that keeps its length is read as the object's new content.
+ */
+public class TSLRandomAccessReader
+{
+  /**
+   * Indexed object.
+   */
+  static private class Entry
+  {
+    final long start;
+    final long end;
+    // Indexed child objects, or null if the object's children are not indexed.
+    final Map<String, List<Entry>> children;
+
+    Entry(long start, long end, Map<String, List<Entry>> children)
+    {
+      this.start = start;
+      this.end = end;
+      this.children = children;
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final Map<String, List<Entry>> entries;
+
+  /**
+   * Open a TSL file with its index.
+   * @param file TSL file.
+   * @param index Index file built by TSLIndexBuilder.
+   * @throws InvalidTSLException if the index is not valid.
+   * @throws IOException if reading the index fails, or the index does not match the file:
+   * the file's size, modification time or the checksum of its start and end changed since the index was built.
+   */
+  public TSLRandomAccessReader(File file, File index) throws InvalidTSLException, IOException
+  {
+    InputStream is = new BufferedInputStream(new FileInputStream(index));
+    TSLObject index_root;
+    try
+    {
+      TSLReader reader = new TSLReader(is);
+      reader.moveNext();
+      if(reader.getState() != TSLReader.State.OBJECT || !TSLIndexBuilder.INDEX_NAME.equals(reader.getName()))
+      {
+        throw new InvalidTSLException("Not a TSL index.");
+      }
+      index_root = new TSLObject(reader);
+    } finally
+    {
+      is.close();
+    }
+    this.file = new RandomAccessFile(file, "r");
+    channel = this.file.getChannel();
+    try
+    {
+      long size = channel.size();
+      long modified = index_root.getStringAsLong(TSLIndexBuilder.FILE_MODIFIED, 0);
+      boolean matches = index_root.getStringAsLong(TSLIndexBuilder.FILE_SIZE, -1) == size;
+      matches = matches && (modified == 0 || modified == file.lastModified());
+      matches = matches && index_root.getStringAsLong(TSLIndexBuilder.FILE_CHECK, -1) == TSLIndexBuilder.checksum(channel, size);
+      if(!matches)
+      {
+        throw new IOException("TSL index does not match the file: " + file + ".");
+      }
+      entries = loadEntries(index_root);
+    } catch(InvalidTSLException e)
+    {
+      this.file.close();
+      throw e;
+    } catch(IOException e)
+    {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  static private Map<String, List<Entry>> loadEntries(TSLObject obj) throws InvalidTSLException
+  {
+    Map<String, List<Entry>> result = new HashMap<String, List<Entry>>();
+    for(TSLObject entry : obj.getObjectList(TSLIndexBuilder.ENTRY))
+    {
+      String name = entry.getString(TSLIndexBuilder.ENTRY_NAME, null);
+      long start = entry.getStringAsLong(TSLIndexBuilder.ENTRY_START, -1);
+      long end = entry.getStringAsLong(TSLIndexBuilder.ENTRY_END, -1);
+      if(name == null || start < 0 || end <= start)
+      {
+        throw new InvalidTSLException("Invalid TSL index entry.");
+      }
+      Map<String, List<Entry>> children = null;
+      if(entry.getObject(TSLIndexBuilder.ENTRY) != null)
+      {
+        children = loadEntries(entry);
+      }
+      List<Entry> list = result.get(name);
+      if(list == null)
+      {
+        list = new ArrayList<Entry>(1);
+        result.put(name, list);
+      }
+      list.add(new Entry(start, end, children));
+    }
+    return result;
+  }
+
+  /**
+   * Parse an object's region of the file.
+   * @throws InvalidTSLException if the region is not a whole object, the file changed since the index was built.
+   */
+  private TSLObject readEntry(Entry entry) throws InvalidTSLException, IOException
+  {
+    TSLReader reader = new TSLReader(channel, entry.start, entry.end - entry.start);
+    reader.moveNext();
+    // The region starts with the object's '['.
+    if(reader.getState() != TSLReader.State.OBJECT || reader.getPosition() != entry.start + 1)
+    {
+      throw new InvalidTSLException("TSL index does not match the file.");
+    }
+    TSLObject obj = new TSLObject(reader);
+    // The region ends with the object's ']'.
+    if(reader.getPosition() != entry.end)
+    {
+      throw new InvalidTSLException("TSL index does not match the file.");
+    }
+    return obj;
+  }
+
+  /**
+   * Get the names of the root object's objects.
+   * @return Names of the indexed objects.
+   */
+  public Set<String> getObjectNames()
+  {
+    return Collections.unmodifiableSet(entries.keySet());
+  }
+
+  /**
+   * Read the first of the root object's objects with the specified name.
+   * @param name Name of the object.
+   * @return The object, or null if the root object has no object with the specified name.
+   * @throws InvalidTSLException if a TSL parsing error occurs, or the object's region no longer matches the file.
+   * @throws IOException if reading the file fails.
+   */
+  public TSLObject getObject(String name) throws InvalidTSLException, IOException
+  {
+    List<Entry> list = entries.get(name);
+    if(list == null)
+    {
+      return null;
+    }
+    return readEntry(list.get(0));
+  }
+
+  /**
+   * Read all of the root object's objects with the specified name.
+   * @param name Name of the objects.
+   * @return List of the objects with the specified name.
+   * @throws InvalidTSLException if a TSL parsing error occurs, or the object's region no longer matches the file.
+   * @throws IOException if reading the file fails.
+   */
+  public List<TSLObject> getObjectList(String name) throws InvalidTSLException, IOException
+  {
+    List<Entry> list = entries.get(name);
+    if(list == null)
+    {
+      return new ArrayList<TSLObject>();
+    }
+    List<TSLObject> result = new ArrayList<TSLObject>(list.size());
+    for(Entry entry : list)
+    {
+      result.add(readEntry(entry));
+    }
+    return result;
+  }
+
+  /**
+   * Read the first object with the specified name in the first of the root object's objects with the parent name.
+   * Only the child object is parsed if the index includes the second level, the whole parent otherwise.
+   * @param name Name of the parent object.
+   * @param child_name Name of the child object.
+   * @return The child object, or null if not found.
+   * @throws InvalidTSLException if a TSL parsing error occurs, or the object's region no longer matches the file.
+   * @throws IOException if reading the file fails.
+   */
+  public TSLObject getObject(String name, String child_name) throws InvalidTSLException, IOException
+  {
+    List<Entry> list = entries.get(name);
+    if(list == null)
+    {
+      return null;
+    }
+    Entry parent = list.get(0);
+    if(parent.children == null)
+    {
+      return readEntry(parent).getObject(child_name);
+    }
+    List<Entry> children = parent.children.get(child_name);
+    if(children == null)
+    {
+      return null;
+    }
+    return readEntry(children.get(0));
+  }
+
+  /**
+   * Close the TSL file.
+   */
+  public void close() throws IOException
+  {
+    file.close();
+  }
+}
@@ -1,17 +1,68 @@
 package exter.tsl;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
- * Parses a TSL from an InputStream
+ * Parses a TSL from an InputStream, a memory mapped file, a ByteBuffer or a byte array.
+ * The input is read in blocks and scanned as UTF-8 bytes directly.
  */
 public class TSLReader
 {
+  // Size of the input block buffer.
+  private static final int BUFFER_SIZE = 8192;
+
+  // Size of the memory mapped file window.
+  private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  // Replacement for malformed UTF-8 sequences.
+  private static final int REPLACEMENT_CHAR = 0xFFFD;
+
+  // ASCII character classes.
+  private static final boolean[] NAME_CHARS = new boolean[128];
+  private static final boolean[] WHITESPACE_CHARS = new boolean[128];
+
+  static
+  {
+    int i;
+    for(i = 0; i < 128; i++)
+    {
+      char c = (char)i;
+      NAME_CHARS[i] = Character.isLetter(c) || Character.isDigit(c) || c == '_' || c == '-';
+      WHITESPACE_CHARS[i] = Character.isWhitespace(c);
+    }
+  }
+
   // Input stream.
-  private BufferedReader isr;
+  private InputStream is;
+
+  // Input buffer, or current window of a memory mapped file.
+  private ByteBuffer input;
+
+  // Memory mapped input file.
+  private FileChannel channel;
+  private long channel_pos;
+  private long channel_end;
+
+  // Input block buffer.
+  byte[] buffer;
+  int buffer_pos;
+  int buffer_end;
+  // Input position of the start of the block buffer.
+  private long buffer_base;
+  // Little endian view of the block buffer, for reading it 8 bytes at a time.
+  private ByteBuffer buffer_words;
+  // The block buffer is the input array.
+  private boolean buffer_is_input;
+
+  // Structural index of a two-stage array input, and the positions of the next index entry and input byte.
+  private TSLStructuralIndex index;
+  private int index_pos;
+  private int data_pos;
+  private int data_end;
   
   // Internal state.
   private enum ReaderState
@@ -38,40 +89,563 @@ public class TSLReader
   }
   
   private ReaderState reader_state;
-  private State state;
-  private String name;
-  private String string;
-  private int level;
+  State state;
+  String name;
+  String string;
+  boolean has_string;
+  int level;
 
   // Internal string builder.
-  private char[] builder;
-  private int builder_length;
-  
-  private void putCharBuilder(char c)
+  char[] builder;
+  int builder_length;
+
+  // View of the current string value.
+  private ValueChars value_chars;
+
+  /**
+   * CharSequence view over the internal string builder.
+   */
+  private class ValueChars implements CharSequence
   {
-    if(builder_length == builder.length)
+    public int length()
+    {
+      return builder_length;
+    }
+
+    public char charAt(int index)
+    {
+      if(index < 0 || index >= builder_length)
+      {
+        throw new IndexOutOfBoundsException("Index: " + index + ", length: " + builder_length + ".");
+      }
+      return builder[index];
+    }
+
+    public CharSequence subSequence(int start, int end)
     {
-      char[] nbuilder = new char[builder.length + 1024];
-      int i;
-      for(i = 0; i < builder.length; i++)
+      if(start < 0 || end > builder_length || start > end)
       {
-        nbuilder[i] = builder[i];
+        throw new IndexOutOfBoundsException("Range: [" + start + ", " + end + "), length: " + builder_length + ".");
       }
+      return String.valueOf(builder, start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+      return getString();
+    }
+  }
+
+  // Value name symbol table.
+  private TSLNameTable name_table;
+
+  String makeName()
+  {
+    if(name_table != null)
+    {
+      return name_table.get(builder, 0, builder_length);
+    }
+    return String.valueOf(builder, 0, builder_length);
+  }
+
+  void growBuilder()
+  {
+    char[] nbuilder = new char[builder.length + 1024];
+    System.arraycopy(builder, 0, nbuilder, 0, builder_length);
+    builder = nbuilder;
+  }
+  
+  // Grow the internal string builder geometrically to hold at least capacity chars.
+  void ensureBuilder(int capacity)
+  {
+    if(builder.length < capacity)
+    {
+      char[] nbuilder = new char[Math.max(capacity, builder.length * 2)];
+      System.arraycopy(builder, 0, nbuilder, 0, builder_length);
       builder = nbuilder;
     }
+  }
+  
+  private void putCharBuilder(char c)
+  {
+    if(builder_length == builder.length)
+    {
+      growBuilder();
+    }
     builder[builder_length++] = c;
   }
   
-  public TSLReader(InputStream is)
+  private void putCodePointBuilder(int c)
+  {
+    if(c > 0xFFFF)
+    {
+      c -= 0x10000;
+      putCharBuilder((char)(0xD800 + (c >>> 10)));
+      putCharBuilder((char)(0xDC00 + (c & 0x3FF)));
+    } else
+    {
+      putCharBuilder((char)c);
+    }
+  }
+
+  private void init()
   {
     builder = new char[4096];
+    buffer_words = null;
+    value_chars = new ValueChars();
+    name_table = null;
+    resetState();
+  }
+
+  // Reset the parsing state to the start of an input.
+  void resetState()
+  {
+    is = null;
+    input = null;
+    channel = null;
+    index = null;
     builder_length = 0;
+    buffer_pos = 0;
+    buffer_end = 0;
+    buffer_base = 0;
 
-    isr = new BufferedReader(new InputStreamReader(is));
     reader_state = ReaderState.NAME;
     name = null;
     string = null;
+    has_string = false;
     state = State.START;
+    level = 0;
+  }
+
+  public TSLReader(InputStream is)
+  {
+    init();
+    buffer = new byte[BUFFER_SIZE];
+    this.is = is;
+  }
+
+  /**
+   * Reset the reader to parse a new input stream.
+   * The reader's internal buffers and name table are kept.
+   * @param is Input stream.
+   */
+  public void reset(InputStream is)
+  {
+    if(buffer_is_input)
+    {
+      buffer = new byte[BUFFER_SIZE];
+      buffer_words = null;
+      buffer_is_input = false;
+    }
+    resetState();
+    this.is = is;
+  }
+
+  /**
+   * Create a reader that parses a byte array.
+   * The array is scanned in place as the input block buffer, without copying it.
+   * The array must not be modified while the reader is in use.
+   * @param data Input data.
+   * @param offset Start of the TSL in the input.
+   * @param length Length of the TSL.
+   */
+  public TSLReader(byte[] data, int offset, int length)
+  {
+    if(offset < 0 || length < 0 || offset + length > data.length)
+    {
+      throw new IndexOutOfBoundsException("Invalid array range.");
+    }
+    init();
+    buffer = data;
+    buffer_is_input = true;
+    buffer_pos = offset;
+    buffer_end = offset + length;
+  }
+
+  /**
+   * Create a reader that parses a byte array.
+   * @param data Input data.
+   */
+  public TSLReader(byte[] data)
+  {
+    this(data, 0, data.length);
+  }
+
+  /**
+   * Create a reader that parses a byte array in two stages.
+   * The whole input is first scanned 8 bytes at a time for structural characters,
+   * values are then read from the ranges given by the structural index, and objects are skipped by walking it.
+   * The events and errors are the same as with {@link #TSLReader(byte[], int, int)}.
+   * The index takes an int per structural character, and for full parsing this mode is not faster
+   * than reading the array in place, it suits inputs that are scanned and skipped more than they're read.
+   * The array must not be modified while the reader is in use.
+   * @param data Input data.
+   * @param offset Start of the TSL in the input.
+   * @param length Length of the TSL.
+   * @return Reader of the array.
+   */
+  static public TSLReader createIndexed(byte[] data, int offset, int length)
+  {
+    TSLReader reader = new TSLReader(data, offset, length);
+    reader.index = TSLStructuralIndex.build(data, offset, length);
+    reader.index_pos = 0;
+    reader.data_pos = offset;
+    reader.data_end = offset + length;
+    return reader;
+  }
+
+  /**
+   * Create a reader that parses a file region through memory mapping.
+   * The region is mapped in windows when they are first read, so files larger than 2 GB can be read,
+   * and mapping errors are thrown by {@link #moveNext()}.
+   * The reader drops each window once it's read, and when it's reset or reaches the end of the region,
+   * but Java has no way to unmap a window early: windows are unmapped when they are garbage collected.
+   * Until then they keep the file open, on some platforms the file can't be deleted or truncated.
+   * The channel is not closed by the reader.
+   * @param channel File to read.
+   * @param position Start of the region in the file.
+   * @param size Size of the region.
+   */
+  public TSLReader(FileChannel channel, long position, long size)
+  {
+    if(position < 0 || size < 0)
+    {
+      throw new IllegalArgumentException("Invalid file region.");
+    }
+    init();
+    buffer = new byte[BUFFER_SIZE];
+    this.channel = channel;
+    channel_pos = position;
+    channel_end = position + size;
+    input = null;
+    buffer_base = position;
+  }
+
+  /**
+   * Create a reader that parses a file through memory mapping,
+   * from the channel's current position to the end of the file.
+   * @see #TSLReader(FileChannel, long, long)
+   * @param channel File to read.
+   * @throws IOException if the channel's position or size cannot be read.
+   */
+  public TSLReader(FileChannel channel) throws IOException
+  {
+    this(channel, channel.position(), channel.size() - channel.position());
+  }
+
+  /**
+   * Create a reader that parses the remaining bytes of a ByteBuffer.
+   * The buffer's position is advanced as the input is read.
+   * @param input Input buffer.
+   */
+  public TSLReader(ByteBuffer input)
+  {
+    init();
+    buffer = new byte[BUFFER_SIZE];
+    this.input = input;
+    buffer_base = input.position();
+  }
+
+  /**
+   * Refill the input block buffer from the input buffer,
+   * mapping the next file window when the current one is exhausted.
+   * @return false if the end of the input is reached.
+   */
+  private boolean fillBuffer() throws IOException
+  {
+    if(input == null || !input.hasRemaining())
+    {
+      input = null;
+      if(channel == null || channel_pos >= channel_end)
+      {
+        return false;
+      }
+      long size = channel_end - channel_pos;
+      if(size > MAP_WINDOW_SIZE)
+      {
+        size = MAP_WINDOW_SIZE;
+      }
+      input = channel.map(FileChannel.MapMode.READ_ONLY, channel_pos, size);
+      channel_pos += size;
+    }
+    int n = input.remaining();
+    if(n > buffer.length)
+    {
+      n = buffer.length;
+    }
+    input.get(buffer, 0, n);
+    if(channel != null && !input.hasRemaining())
+    {
+      // Drop the window as soon as it's read, so it can be unmapped.
+      input = null;
+    }
+    buffer_end = n;
+    return true;
+  }
+
+  /**
+   * Refill the input block buffer.
+   * @return false if the end of the input is reached.
+   */
+  boolean fill() throws IOException
+  {
+    if(index != null)
+    {
+      return false;
+    }
+    buffer_base += buffer_end;
+    buffer_pos = 0;
+    buffer_end = 0;
+    if(is == null)
+    {
+      // Buffer, file or array input, an array is read at once.
+      return fillBuffer();
+    }
+    int n;
+    do
+    {
+      n = is.read(buffer, 0, buffer.length);
+    } while(n == 0);
+    if(n < 0)
+    {
+      return false;
+    }
+    buffer_end = n;
+    return true;
+  }
+
+  /**
+   * Start reading the input as the contents of an object, the values separated by ','
+   * without the enclosing name and brackets.
+   * The reader's state is set to State.OBJECT, and reading past the last value
+   * throws an InvalidTSLException for the unexpected end of the input.
+   */
+  void beginObjectContents()
+  {
+    state = State.OBJECT;
+    reader_state = ReaderState.NAME;
+    level = 1;
+  }
+
+  /**
+   * Continue scanning from a new chunk of input, keeping the scanning state.
+   * The chunk must not end inside a UTF-8 sequence, unless it's the end of the input.
+   */
+  void setChunk(byte[] data, int offset, int length)
+  {
+    buffer = data;
+    buffer_words = null;
+    buffer_is_input = true;
+    buffer_base += buffer_end - offset;
+    buffer_pos = offset;
+    buffer_end = offset + length;
+  }
+
+  /**
+   * Get the number of input bytes after the last character read, if it's known.
+   * @return The remaining bytes, or -1 for stream input.
+   */
+  long getRemaining()
+  {
+    if(is != null)
+    {
+      return -1;
+    }
+    if(index != null)
+    {
+      return data_end - data_pos;
+    }
+    long remaining = buffer_end - buffer_pos;
+    if(input != null)
+    {
+      remaining += input.remaining();
+    }
+    if(channel != null)
+    {
+      remaining += channel_end - channel_pos;
+    }
+    return remaining;
+  }
+
+  /**
+   * Get the input position after the last character read.
+   * For file input this is the position in the file,
+   * for array and buffer input the index in the array or buffer.
+   */
+  long getPosition()
+  {
+    if(index != null)
+    {
+      return data_pos;
+    }
+    return buffer_base + buffer_pos;
+  }
+
+  /**
+   * Read an UTF-8 continuation byte.
+   * @return The continuation bits, or -1 if the byte is not a continuation byte.
+   */
+  private int readContinuation() throws IOException
+  {
+    if(buffer_pos == buffer_end && !fill())
+    {
+      return -1;
+    }
+    int b = buffer[buffer_pos];
+    if((b & 0xC0) != 0x80)
+    {
+      return -1;
+    }
+    buffer_pos++;
+    return b & 0x3F;
+  }
+
+  /**
+   * Decode a multi-byte UTF-8 sequence.
+   * Malformed sequences are decoded as U+FFFD.
+   * @param b First byte of the sequence.
+   * @return Decoded code point.
+   */
+  private int decodeUTF8(int b) throws IOException
+  {
+    int count;
+    int cp;
+    int min;
+    if((b & 0xE0) == 0xC0)
+    {
+      count = 1;
+      cp = b & 0x1F;
+      min = 0x80;
+    } else if((b & 0xF0) == 0xE0)
+    {
+      count = 2;
+      cp = b & 0x0F;
+      min = 0x800;
+    } else if((b & 0xF8) == 0xF0)
+    {
+      count = 3;
+      cp = b & 0x07;
+      min = 0x10000;
+    } else
+    {
+      return REPLACEMENT_CHAR;
+    }
+    while(count-- > 0)
+    {
+      int c = readContinuation();
+      if(c < 0)
+      {
+        return REPLACEMENT_CHAR;
+      }
+      cp = (cp << 6) | c;
+    }
+    if(cp < min || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE))
+    {
+      return REPLACEMENT_CHAR;
+    }
+    return cp;
+  }
+
+  /**
+   * Copy a run of plain ASCII value characters from the block buffer to the string builder.
+   */
+  private void readValueRun()
+  {
+    byte[] buf = buffer;
+    int pos = buffer_pos;
+    int end = buffer_end;
+    while(pos < end)
+    {
+      if(builder_length == builder.length)
+      {
+        growBuilder();
+      }
+      char[] b = builder;
+      int len = builder_length;
+      int run_end = pos + (b.length - len);
+      if(run_end > end)
+      {
+        run_end = end;
+      }
+      while(pos < run_end)
+      {
+        int c = buf[pos];
+        if(c < 0 || c == '"' || c == '\\')
+        {
+          buffer_pos = pos;
+          builder_length = len;
+          return;
+        }
+        b[len++] = (char)c;
+        pos++;
+      }
+      builder_length = len;
+    }
+    buffer_pos = pos;
+  }
+
+  /**
+   * Copy a run of ASCII name characters from the block buffer to the string builder.
+   */
+  private void readNameRun()
+  {
+    byte[] buf = buffer;
+    int pos = buffer_pos;
+    int end = buffer_end;
+    while(pos < end)
+    {
+      int c = buf[pos];
+      if(c < 0 || !NAME_CHARS[c])
+      {
+        break;
+      }
+      putCharBuilder((char)c);
+      pos++;
+    }
+    buffer_pos = pos;
+  }
+
+  static private boolean isNameChar(int c)
+  {
+    if(c < 128)
+    {
+      return NAME_CHARS[c];
+    }
+    return c <= 0xFFFF && (Character.isLetter((char)c) || Character.isDigit((char)c));
+  }
+
+  static private boolean isWhitespace(int c)
+  {
+    if(c < 128)
+    {
+      return WHITESPACE_CHARS[c];
+    }
+    return c <= 0xFFFF && Character.isWhitespace((char)c);
+  }
+
+  static private String charToString(int c)
+  {
+    return new String(Character.toChars(c));
+  }
+
+  /**
+   * Set the symbol table used for value names.
+   * Names found in the table are returned as the same String instance.
+   * @param table Name table, or null to create a new String for every name.
+   */
+  public void setNameTable(TSLNameTable table)
+  {
+    name_table = table;
+  }
+
+  /**
+   * Get the symbol table used for value names.
+   * @return Name table, or null if not set.
+   */
+  public TSLNameTable getNameTable()
+  {
+    return name_table;
   }
   
   /**
@@ -89,8 +663,69 @@ public class TSLReader
    */
   public String getString()
   {
+    if(string == null && has_string)
+    {
+      string = String.valueOf(builder, 0, builder_length);
+    }
     return string;
   }
+
+  /**
+   * Get the current string value as a view over the reader's internal buffer.
+   * The returned sequence is reused, and is only valid until the next call to {@link #moveNext()}.
+   * @return Value characters, or null if the current TSL value is not a string.
+   */
+  public CharSequence getValueChars()
+  {
+    if(!has_string)
+    {
+      return null;
+    }
+    return value_chars;
+  }
+
+  private CharSequence getNumberChars()
+  {
+    if(!has_string)
+    {
+      throw new IllegalStateException("Current value is not a TSL string");
+    }
+    return value_chars;
+  }
+
+  /**
+   * Parse the current string value as an int without creating a String.
+   * @return Value as an int.
+   * @throws IllegalStateException if the current TSL value is not a string.
+   * @throws NumberFormatException if the value is not a valid int.
+   */
+  public int getInt()
+  {
+    return TSLUtil.parseInt(getNumberChars());
+  }
+
+  /**
+   * Parse the current string value as a long without creating a String.
+   * @return Value as a long.
+   * @throws IllegalStateException if the current TSL value is not a string.
+   * @throws NumberFormatException if the value is not a valid long.
+   */
+  public long getLong()
+  {
+    return TSLUtil.parseLong(getNumberChars());
+  }
+
+  /**
+   * Parse the current string value as a double.
+   * Plain decimal values are parsed without creating a String.
+   * @return Value as a double.
+   * @throws IllegalStateException if the current TSL value is not a string.
+   * @throws NumberFormatException if the value is not a valid double.
+   */
+  public double getDouble()
+  {
+    return TSLUtil.parseDouble(getNumberChars());
+  }
   
   /**
    * Get the reader's state.
@@ -105,6 +740,8 @@ public class TSLReader
    * Skip an object.
    * The reader's state is set to {@link State.ENDOBJECT} corresponding the skipped object.
    * Does nothing if the state is not {@link State.OBJECT}.
+   * The skipped values are not parsed, only the quotes, escape sequences and brackets
+   * are tracked to find the end of the object.
    * @throws InvalidTSLException if a TSL parsing error occurs.
    */
   public void skipObject() throws InvalidTSLException, IOException
@@ -113,10 +750,137 @@ public class TSLReader
     {
       return;
     }
-    int lv = level - 1;
-    while(level > lv)
+    builder_length = 0;
+    string = null;
+    has_string = false;
+    if(index != null)
+    {
+      skipIndexed();
+    } else
+    {
+      skipRaw();
+    }
+    level--;
+    state = State.ENDOBJECT;
+    reader_state = ReaderState.COMMA_END;
+  }
+
+  /**
+   * Skip to the end of the current object by walking the structural index.
+   */
+  private void skipIndexed() throws InvalidTSLException
+  {
+    int depth = 1;
+    int size = index.size();
+    while(index_pos < size)
+    {
+      int p = index.get(index_pos++);
+      switch(buffer[p])
+      {
+        case '"':
+          // Skip the closing quote.
+          index_pos++;
+          break;
+        case '[':
+          depth++;
+          break;
+        case ']':
+          if(--depth == 0)
+          {
+            data_pos = p + 1;
+            return;
+          }
+          break;
+      }
+    }
+    state = State.END;
+    throw new InvalidTSLException("Unexpected end of stream.");
+  }
+
+  /**
+   * Skip to the end of the current object by scanning the input bytes.
+   * Words of 8 bytes without quotes, backslashes (in values) or brackets (outside values) are skipped at once.
+   */
+  private void skipRaw() throws InvalidTSLException, IOException
+  {
+    if(buffer_words == null)
+    {
+      buffer_words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    int depth = 1;
+    boolean in_string = false;
+    boolean escape = false;
+    while(true)
     {
-      moveNext();
+      if(buffer_pos == buffer_end && !fill())
+      {
+        state = State.END;
+        throw new InvalidTSLException("Unexpected end of stream.");
+      }
+      byte[] buf = buffer;
+      int pos = buffer_pos;
+      int end = buffer_end;
+      int word_end = end - 7;
+      if(escape)
+      {
+        pos++;
+        escape = false;
+      }
+      while(pos < end)
+      {
+        if(pos < word_end)
+        {
+          long word = buffer_words.getLong(pos);
+          long mask;
+          if(in_string)
+          {
+            mask = TSLUtil.matchBytes(word, TSLUtil.QUOTES)
+                | TSLUtil.matchBytes(word, TSLUtil.BACKSLASHES);
+          } else
+          {
+            mask = TSLUtil.matchBytes(word, TSLUtil.QUOTES)
+                | TSLUtil.matchBytes(word, TSLUtil.OPEN_BRACKETS)
+                | TSLUtil.matchBytes(word, TSLUtil.CLOSE_BRACKETS);
+          }
+          if(mask == 0)
+          {
+            pos += 8;
+            continue;
+          }
+          pos += Long.numberOfTrailingZeros(mask) >>> 3;
+        }
+        int c = buf[pos++];
+        if(in_string)
+        {
+          if(c == '"')
+          {
+            in_string = false;
+          } else if(c == '\\')
+          {
+            if(pos == end)
+            {
+              escape = true;
+            } else
+            {
+              pos++;
+            }
+          }
+        } else if(c == '"')
+        {
+          in_string = true;
+        } else if(c == '[')
+        {
+          depth++;
+        } else if(c == ']')
+        {
+          if(--depth == 0)
+          {
+            buffer_pos = pos;
+            return;
+          }
+        }
+      }
+      buffer_pos = end;
     }
   }
   
@@ -125,6 +889,28 @@ public class TSLReader
    * @throws InvalidTSLException if a TSL parsing error occurs.
    */
   public void moveNext() throws InvalidTSLException, IOException
+  {
+    if(!startValue())
+    {
+      return;
+    }
+    if(index != null)
+    {
+      moveNextIndexed();
+      return;
+    }
+    if(!scan())
+    {
+      state = State.END;
+      throw new InvalidTSLException("Unexpected end of stream.");
+    }
+  }
+
+  /**
+   * Clear the current value before scanning the next one.
+   * @return false if the reader is at the end of the TSL.
+   */
+  boolean startValue()
   {
     if(state == State.ENDOBJECT && level == 0)
     {
@@ -132,43 +918,72 @@ public class TSLReader
     }
     if(state == State.END)
     {
-      return;
+      return false;
     }
     builder_length = 0;
+    string = null;
+    has_string = false;
+    return true;
+  }
+
+  /**
+   * Scan the input to the end of the next value.
+   * All the scanning state is kept in the reader, so when the input runs out
+   * the scan can be continued with more input, see {@link #setChunk(byte[], int, int)}.
+   * @return false if the end of the input is reached before the end of the value.
+   */
+  boolean scan() throws InvalidTSLException, IOException
+  {
     while(true)
     {
-      int i;
-      i = isr.read();
-      if(i == -1)
+      if(buffer_pos == buffer_end && !fill())
       {
-        state = State.END;
-        throw new InvalidTSLException("Unexpected end of stream.");
+        return false;
       }
-      char c = (char)i;
       switch(reader_state)
       {
         case NAME:
-          if(Character.isLetter(c) || Character.isDigit(c) || c == '_' || c == '-')
+          readNameRun();
+          break;
+        case VALUE:
+          readValueRun();
+          break;
+        default:
+          break;
+      }
+      if(buffer_pos == buffer_end)
+      {
+        continue;
+      }
+      int c = buffer[buffer_pos++];
+      if(c < 0)
+      {
+        c = decodeUTF8(c & 0xFF);
+      }
+      switch(reader_state)
+      {
+        case NAME:
+          if(isNameChar(c))
           {
-            putCharBuilder(c);
+            putCodePointBuilder(c);
           } else if(c == '"')
           {
-            name = String.valueOf(builder, 0, builder_length);
+            name = makeName();
             builder_length = 0;
             reader_state = ReaderState.VALUE;
           } else if(c == '[')
           {
-            name = String.valueOf(builder, 0, builder_length);
+            name = makeName();
             string = null;
             state = State.OBJECT;
             reader_state = ReaderState.NAME;
             level++;
-            return;
-          } else if(Character.isWhitespace(c))
+            return true;
+          } else if(isWhitespace(c))
           {
             if(builder_length > 0)
             {
-              name = String.valueOf(builder, 0, builder_length);
+              name = makeName();
               reader_state = ReaderState.VALUESTART_OBJECT;
             }
           } else
@@ -176,14 +991,14 @@ public class TSLReader
             state = State.END;
             name = null;
             string = null;
-            throw new InvalidTSLException("Unexpected name character: '"+ String.valueOf(c) + "'.");
+            throw new InvalidTSLException("Unexpected name character: '"+ charToString(c) + "'.");
           }
           break;
         case VALUE:
           if(c == '"')
           {
             reader_state = ReaderState.COMMA_END;
-            string = String.valueOf(builder, 0, builder_length);
+            has_string = true;
             if(level == 0)
             {
               state = State.END;
@@ -191,13 +1006,13 @@ public class TSLReader
             {
               state = State.STRING;
             }
-            return;
+            return true;
           } else if(c == '\\')
           {
             reader_state = ReaderState.CHARESCAPE;
           } else
           {
-            putCharBuilder(c);
+            putCodePointBuilder(c);
           }
           break;
         case COMMA_END:
@@ -208,15 +1023,15 @@ public class TSLReader
           {
             level--;
             state = State.ENDOBJECT;
-            return;
-          } else if(!Character.isWhitespace(c))
+            return true;
+          } else if(!isWhitespace(c))
           {
             state = State.END;
             throw new InvalidTSLException("Expected ',' or ']'.");
           }
           break;
         case VALUESTART_OBJECT:
-          if(!Character.isWhitespace(c))
+          if(!isWhitespace(c))
           {
             if(c == '"')
             {
@@ -224,12 +1039,12 @@ public class TSLReader
               builder_length = 0;
             } else if(c == '[')
             {
-              name = String.valueOf(builder, 0, builder_length);
+              name = makeName();
               string = null;
               state = State.OBJECT;
               reader_state = ReaderState.NAME;
               level++;
-              return;              
+              return true;
             } else
             {
               state = State.END;
@@ -249,7 +1064,194 @@ public class TSLReader
           } else
           {
             state = State.END;
-            throw new InvalidTSLException("Invalid value escape sequence '\\" + String.valueOf(c) + "'.");
+            throw new InvalidTSLException("Invalid value escape sequence '\\" + charToString(c) + "'.");
+          }
+          break;
+      }
+    }
+  }
+
+  /**
+   * Read the next character of an indexed input region.
+   */
+  private int nextChar() throws IOException
+  {
+    int c = buffer[buffer_pos++];
+    if(c < 0)
+    {
+      c = decodeUTF8(c & 0xFF);
+    }
+    return c;
+  }
+
+  /**
+   * Read a value name from an indexed input region.
+   * The region must contain only the name and surrounding whitespace.
+   */
+  private void readIndexedName(int start, int end) throws InvalidTSLException, IOException
+  {
+    buffer_pos = start;
+    buffer_end = end;
+    builder_length = 0;
+    // 0: leading whitespace, 1: name, 2: trailing whitespace.
+    int part = 0;
+    while(buffer_pos < end)
+    {
+      if(part == 1)
+      {
+        readNameRun();
+        if(buffer_pos == end)
+        {
+          break;
+        }
+      }
+      int c = nextChar();
+      if(isWhitespace(c))
+      {
+        if(part == 1)
+        {
+          part = 2;
+        }
+      } else if(part != 2 && isNameChar(c))
+      {
+        putCodePointBuilder(c);
+        part = 1;
+      } else
+      {
+        state = State.END;
+        name = null;
+        if(part == 2)
+        {
+          throw new InvalidTSLException("Expected '[' or value after Oject name");
+        }
+        throw new InvalidTSLException("Unexpected name character: '"+ charToString(c) + "'.");
+      }
+    }
+    buffer_end = data_end;
+    name = makeName();
+  }
+
+  /**
+   * Read a string value from an indexed input region, without the quotes.
+   */
+  private void readIndexedValue(int start, int end) throws InvalidTSLException, IOException
+  {
+    buffer_pos = start;
+    buffer_end = end;
+    builder_length = 0;
+    while(buffer_pos < end)
+    {
+      readValueRun();
+      if(buffer_pos == end)
+      {
+        break;
+      }
+      int c = buffer[buffer_pos++];
+      if(c == '\\')
+      {
+        c = nextChar();
+        if(c != '"' && c != '\\')
+        {
+          state = State.END;
+          throw new InvalidTSLException("Invalid value escape sequence '\\" + charToString(c) + "'.");
+        }
+        putCharBuilder((char)c);
+      } else
+      {
+        putCodePointBuilder(decodeUTF8(c & 0xFF));
+      }
+    }
+    buffer_end = data_end;
+  }
+
+  /**
+   * Check that an indexed input region contains only whitespace.
+   */
+  private boolean isIndexedWhitespace(int start, int end) throws IOException
+  {
+    buffer_pos = start;
+    buffer_end = end;
+    boolean result = true;
+    while(buffer_pos < end)
+    {
+      if(!isWhitespace(nextChar()))
+      {
+        result = false;
+        break;
+      }
+    }
+    buffer_end = data_end;
+    return result;
+  }
+
+  /**
+   * Advance the reader to next value by walking the structural index.
+   */
+  private void moveNextIndexed() throws InvalidTSLException, IOException
+  {
+    while(true)
+    {
+      if(index_pos == index.size())
+      {
+        state = State.END;
+        throw new InvalidTSLException("Unexpected end of stream.");
+      }
+      int p = index.get(index_pos);
+      int c = buffer[p];
+      switch(reader_state)
+      {
+        case NAME:
+          readIndexedName(data_pos, p);
+          if(c == '"')
+          {
+            if(index_pos + 1 == index.size())
+            {
+              state = State.END;
+              throw new InvalidTSLException("Unexpected end of stream.");
+            }
+            int q = index.get(index_pos + 1);
+            index_pos += 2;
+            readIndexedValue(p + 1, q);
+            data_pos = q + 1;
+            reader_state = ReaderState.COMMA_END;
+            has_string = true;
+            if(level == 0)
+            {
+              state = State.END;
+            } else
+            {
+              state = State.STRING;
+            }
+            return;
+          } else if(c == '[')
+          {
+            index_pos++;
+            data_pos = p + 1;
+            state = State.OBJECT;
+            level++;
+            return;
+          } else
+          {
+            state = State.END;
+            name = null;
+            throw new InvalidTSLException("Unexpected name character: '"+ charToString(c) + "'.");
+          }
+        default:
+          if(!isIndexedWhitespace(data_pos, p) || (c != ',' && c != ']'))
+          {
+            state = State.END;
+            throw new InvalidTSLException("Expected ',' or ']'.");
+          }
+          index_pos++;
+          data_pos = p + 1;
+          if(c == ',')
+          {
+            reader_state = ReaderState.NAME;
+          } else
+          {
+            level--;
+            state = State.ENDOBJECT;
+            return;
           }
           break;
       }
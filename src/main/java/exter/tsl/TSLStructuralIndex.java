@@ -0,0 +1,126 @@
+package exter.tsl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Positions of the structural characters of a TSL document held in a byte array.
+ * Built by scanning the input 8 bytes at a time (SWAR): words without any character
+ * of interest are skipped with a few arithmetic operations instead of a per-byte state machine.
+ * The index contains the opening and closing quote of every value, and every '[', ']' and ','
+ * outside of values.
+ */
+final class TSLStructuralIndex
+{
+  // Structural character positions.
+  private int[] positions;
+  private int count;
+
+  private TSLStructuralIndex()
+  {
+    positions = new int[256];
+    count = 0;
+  }
+
+  private void add(int position)
+  {
+    if(count == positions.length)
+    {
+      int[] npositions = new int[positions.length * 2];
+      System.arraycopy(positions, 0, npositions, 0, count);
+      positions = npositions;
+    }
+    positions[count++] = position;
+  }
+
+  /**
+   * Get the number of structural characters.
+   */
+  int size()
+  {
+    return count;
+  }
+
+  /**
+   * Get the position of a structural character.
+   * @return Position in the input.
+   */
+  int get(int i)
+  {
+    return positions[i];
+  }
+
+  static private boolean isStructural(int c, boolean in_string)
+  {
+    if(in_string)
+    {
+      return c == '"' || c == '\\';
+    }
+    return c == '"' || c == '[' || c == ']' || c == ',';
+  }
+
+  /**
+   * Build the structural index of a TSL document.
+   * @param data Input data.
+   * @param offset Start of the document in the input.
+   * @param length Length of the document.
+   * @return Structural index.
+   */
+  static TSLStructuralIndex build(byte[] data, int offset, int length)
+  {
+    TSLStructuralIndex index = new TSLStructuralIndex();
+    ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    int end = offset + length;
+    int word_end = end - 7;
+    boolean in_string = false;
+    int i = offset;
+    while(i < end)
+    {
+      if(i < word_end)
+      {
+        long word = words.getLong(i);
+        long mask;
+        if(in_string)
+        {
+          mask = TSLUtil.matchBytes(word, TSLUtil.QUOTES) | TSLUtil.matchBytes(word, TSLUtil.BACKSLASHES);
+        } else
+        {
+          mask = TSLUtil.matchBytes(word, TSLUtil.QUOTES) | TSLUtil.matchBytes(word, TSLUtil.OPEN_BRACKETS)
+              | TSLUtil.matchBytes(word, TSLUtil.CLOSE_BRACKETS) | TSLUtil.matchBytes(word, TSLUtil.COMMAS);
+        }
+        if(mask == 0)
+        {
+          i += 8;
+          continue;
+        }
+        i += Long.numberOfTrailingZeros(mask) >>> 3;
+      } else if(!isStructural(data[i], in_string))
+      {
+        i++;
+        continue;
+      }
+      int c = data[i];
+      if(in_string)
+      {
+        if(c == '"')
+        {
+          index.add(i);
+          in_string = false;
+        } else
+        {
+          // Backslash, skip the escaped character.
+          i++;
+        }
+      } else
+      {
+        if(c == '"')
+        {
+          in_string = true;
+        }
+        index.add(i);
+      }
+      i++;
+    }
+    return index;
+  }
+}
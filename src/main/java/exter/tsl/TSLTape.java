@@ -0,0 +1,175 @@
+package exter.tsl;
+
+import java.io.IOException;
+
+/**
+ * Compact record of a parsed TSL Object, used for lazily loaded TSLObjects.
+ * Each value is an entry in an int tape, with its name in a parallel array.
+ * A string entry holds the offset and length of its characters in a shared char arena,
+ * an object entry holds the range of the entries of its values.
+ */
+final class TSLTape
+{
+  // Entry kinds.
+  static final int STRING = 0;
+  static final int OBJECT = 1;
+
+  // Ints per entry: kind, offset/first value, length/end of values.
+  static private final int ENTRY_SIZE = 3;
+
+  // Entry tape.
+  int[] tape;
+  // Entry names.
+  String[] names;
+  // Number of entries.
+  int count;
+
+  // String value characters.
+  char[] chars;
+  int chars_length;
+
+  private TSLTape()
+  {
+    tape = new int[ENTRY_SIZE * 256];
+    names = new String[256];
+    count = 0;
+    chars = new char[4096];
+    chars_length = 0;
+  }
+
+  private int addEntry(int kind, String name, int a, int b)
+  {
+    if(count == names.length)
+    {
+      String[] nnames = new String[names.length * 2];
+      System.arraycopy(names, 0, nnames, 0, count);
+      names = nnames;
+      int[] ntape = new int[tape.length * 2];
+      System.arraycopy(tape, 0, ntape, 0, count * ENTRY_SIZE);
+      tape = ntape;
+    }
+    int i = count * ENTRY_SIZE;
+    tape[i] = kind;
+    tape[i + 1] = a;
+    tape[i + 2] = b;
+    names[count] = name;
+    return count++;
+  }
+
+  private int addChars(CharSequence value)
+  {
+    int length = value.length();
+    if(chars_length + length > chars.length)
+    {
+      int size = chars.length * 2;
+      while(chars_length + length > size)
+      {
+        size *= 2;
+      }
+      char[] nchars = new char[size];
+      System.arraycopy(chars, 0, nchars, 0, chars_length);
+      chars = nchars;
+    }
+    int offset = chars_length;
+    int i;
+    for(i = 0; i < length; i++)
+    {
+      chars[offset + i] = value.charAt(i);
+    }
+    chars_length += length;
+    return offset;
+  }
+
+  int getKind(int entry)
+  {
+    return tape[entry * ENTRY_SIZE];
+  }
+
+  /**
+   * Get the string value of an entry.
+   */
+  String getString(int entry)
+  {
+    int i = entry * ENTRY_SIZE;
+    return String.valueOf(chars, tape[i + 1], tape[i + 2]);
+  }
+
+  /**
+   * Get the index of the first value entry of an object entry.
+   */
+  int getObjectStart(int entry)
+  {
+    return tape[entry * ENTRY_SIZE + 1];
+  }
+
+  /**
+   * Get the index after the last value entry of an object entry.
+   */
+  int getObjectEnd(int entry)
+  {
+    return tape[entry * ENTRY_SIZE + 2];
+  }
+
+  /**
+   * Record the values of the object the reader is on.
+   * The reader's state must be TSLReader.State.OBJECT,
+   * and is left at the corresponding TSLReader.State.ENDOBJECT.
+   * @return Tape containing the object's values as entries [0, count).
+   */
+  static TSLTape read(TSLReader reader) throws InvalidTSLException, IOException
+  {
+    if(reader.getState() != TSLReader.State.OBJECT)
+    {
+      throw new IllegalStateException("Current value is not a TSL Object");
+    }
+    TSLTape tape = new TSLTape();
+    TSLNameTable table = reader.getNameTable();
+    if(table == null)
+    {
+      reader.setNameTable(new TSLNameTable());
+    }
+    try
+    {
+      int[] stack = new int[16];
+      int depth = 0;
+      while(true)
+      {
+        reader.moveNext();
+        switch(reader.getState())
+        {
+          case STRING:
+          {
+            CharSequence value = reader.getValueChars();
+            int offset = tape.addChars(value);
+            tape.addEntry(STRING, reader.getName(), offset, value.length());
+            break;
+          }
+          case OBJECT:
+          {
+            int entry = tape.addEntry(OBJECT, reader.getName(), tape.count + 1, 0);
+            if(depth == stack.length)
+            {
+              int[] nstack = new int[stack.length * 2];
+              System.arraycopy(stack, 0, nstack, 0, depth);
+              stack = nstack;
+            }
+            stack[depth++] = entry;
+            break;
+          }
+          case ENDOBJECT:
+            if(depth == 0)
+            {
+              return tape;
+            }
+            tape.tape[stack[--depth] * ENTRY_SIZE + 2] = tape.count;
+            break;
+          default:
+            assert false;
+        }
+      }
+    } finally
+    {
+      reader.setNameTable(table);
+    }
+  }
+}
@@ -37,4 +37,451 @@ public class TSLUtil
       throw new IllegalArgumentException("Invalid TSL Object name: '" + name + "'.");
     }
   }
+
+  // Words of 8 copies of a byte, for matching the bytes of a word at once (SWAR).
+  static private final long ONES = 0x0101010101010101L;
+  static private final long HIGHS = 0x8080808080808080L;
+  static final long QUOTES = ONES * '"';
+  static final long BACKSLASHES = ONES * '\\';
+  static final long OPEN_BRACKETS = ONES * '[';
+  static final long CLOSE_BRACKETS = ONES * ']';
+  static final long COMMAS = ONES * ',';
+
+  /**
+   * Get a mask with the high bit set in every byte of the word that is equal to the pattern's bytes.
+   * Only the lowest set bit is exact, higher bits may be set by a borrow.
+   */
+  static long matchBytes(long word, long pattern)
+  {
+    long v = word ^ pattern;
+    return (v - ONES) & ~v & HIGHS;
+  }
+
+  // Powers of ten that are exactly representable as a double.
+  static private final double[] POW10 =
+  {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+    1e21, 1e22
+  };
+
+  /**
+   * Accumulate the digits of a decimal long in the range [min, max] negatively, to cover the minimum value.
+   * Accepts the same syntax as Long.parseLong, strings with non-ASCII characters are parsed with it.
+   * @return The negated absolute value, or 1 if the string is not a valid number in range.
+   */
+  static long accumulateLong(CharSequence str, long min, long max)
+  {
+    int length = str.length();
+    if(length == 0)
+    {
+      return 1;
+    }
+    int i = 0;
+    boolean negative = false;
+    char c = str.charAt(0);
+    if(c == '-' || c == '+')
+    {
+      negative = c == '-';
+      i++;
+      if(length == 1)
+      {
+        return 1;
+      }
+    }
+    long limit = negative ? min : -max;
+    long multmin = limit / 10;
+    long result = 0;
+    for(; i < length; i++)
+    {
+      char d = str.charAt(i);
+      int digit = d - '0';
+      if(digit < 0 || digit > 9 || result < multmin)
+      {
+        return d >= 0x80 ? accumulateParsed(str, min, max) : 1;
+      }
+      result *= 10;
+      if(result < limit + digit)
+      {
+        return 1;
+      }
+      result -= digit;
+    }
+    return result;
+  }
+
+  // Parse a string with non-ASCII digits with Long.parseLong, returned like accumulateLong.
+  static private long accumulateParsed(CharSequence str, long min, long max)
+  {
+    long value;
+    try
+    {
+      value = Long.parseLong(str.toString());
+    } catch(NumberFormatException e)
+    {
+      return 1;
+    }
+    if(value < min || value > max)
+    {
+      return 1;
+    }
+    return value < 0 ? value : -value;
+  }
+
+  /**
+   * Parse a decimal long in the range [min, max] without creating a String.
+   * Accepts the same syntax as Long.parseLong.
+   * @throws NumberFormatException if the string is not a valid number in range.
+   */
+  static private long parseLong(CharSequence str, long min, long max)
+  {
+    long result = accumulateLong(str, min, max);
+    if(result > 0)
+    {
+      throw new NumberFormatException("For input string: \"" + str + "\"");
+    }
+    return str.charAt(0) == '-' ? result : -result;
+  }
+
+  /**
+   * Check if a string is a valid double.
+   * Plain decimal numbers are checked without throwing an exception,
+   * anything else is checked with Double.parseDouble.
+   */
+  static boolean isValidDouble(CharSequence str)
+  {
+    int length = str.length();
+    int i = 0;
+    if(length > 0 && (str.charAt(0) == '-' || str.charAt(0) == '+'))
+    {
+      i++;
+    }
+    boolean any_digit = false;
+    boolean point = false;
+    for(; i < length; i++)
+    {
+      char c = str.charAt(i);
+      if(c >= '0' && c <= '9')
+      {
+        any_digit = true;
+      } else if(c == '.' && !point)
+      {
+        point = true;
+      } else
+      {
+        break;
+      }
+    }
+    if(any_digit && i < length && (str.charAt(i) == 'e' || str.charAt(i) == 'E'))
+    {
+      i++;
+      if(i < length && (str.charAt(i) == '-' || str.charAt(i) == '+'))
+      {
+        i++;
+      }
+      int exp_start = i;
+      while(i < length && str.charAt(i) >= '0' && str.charAt(i) <= '9')
+      {
+        i++;
+      }
+      if(i == exp_start)
+      {
+        any_digit = false;
+      }
+    }
+    if(any_digit && i == length)
+    {
+      return true;
+    }
+    try
+    {
+      Double.parseDouble(str.toString());
+      return true;
+    } catch(NumberFormatException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Parse a decimal int without creating a String.
+   * Accepts the same values as Integer.parseInt, values with non-ASCII digits are parsed with it.
+   * @param str Characters to parse.
+   * @return Parsed value.
+   * @throws NumberFormatException if the string is not a valid int.
+   */
+  static public int parseInt(CharSequence str)
+  {
+    return (int)parseLong(str, Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Parse a decimal long without creating a String.
+   * Accepts the same values as Long.parseLong, values with non-ASCII digits are parsed with it.
+   * @param str Characters to parse.
+   * @return Parsed value.
+   * @throws NumberFormatException if the string is not a valid long.
+   */
+  static public long parseLong(CharSequence str)
+  {
+    return parseLong(str, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Parse a double.
+   * Plain decimal numbers whose value is exactly computable are parsed without creating a String,
+   * anything else is delegated to Double.parseDouble.
+   * @param str Characters to parse.
+   * @return Parsed value.
+   * @throws NumberFormatException if the string is not a valid double.
+   */
+  static public double parseDouble(CharSequence str)
+  {
+    int length = str.length();
+    int i = 0;
+    boolean negative = false;
+    if(length > 0)
+    {
+      char c = str.charAt(0);
+      if(c == '-' || c == '+')
+      {
+        negative = c == '-';
+        i++;
+      }
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean any_digit = false;
+    boolean point = false;
+    for(; i < length; i++)
+    {
+      char c = str.charAt(i);
+      if(c >= '0' && c <= '9')
+      {
+        any_digit = true;
+        if(mantissa != 0 || c != '0')
+        {
+          if(digits == 18)
+          {
+            return Double.parseDouble(str.toString());
+          }
+          mantissa = mantissa * 10 + (c - '0');
+          digits++;
+        }
+        if(point)
+        {
+          exponent--;
+        }
+      } else if(c == '.' && !point)
+      {
+        point = true;
+      } else
+      {
+        break;
+      }
+    }
+    if(!any_digit)
+    {
+      return Double.parseDouble(str.toString());
+    }
+    if(i < length)
+    {
+      char c = str.charAt(i);
+      if(c != 'e' && c != 'E' || ++i == length)
+      {
+        return Double.parseDouble(str.toString());
+      }
+      boolean exp_negative = false;
+      c = str.charAt(i);
+      if(c == '-' || c == '+')
+      {
+        exp_negative = c == '-';
+        if(++i == length)
+        {
+          return Double.parseDouble(str.toString());
+        }
+      }
+      int exp = 0;
+      for(; i < length; i++)
+      {
+        int digit = str.charAt(i) - '0';
+        if(digit < 0 || digit > 9 || exp > 1000)
+        {
+          return Double.parseDouble(str.toString());
+        }
+        exp = exp * 10 + digit;
+      }
+      exponent += exp_negative ? -exp : exp;
+    }
+    if(mantissa > (1L << 53) || exponent < -22 || exponent > 22)
+    {
+      return Double.parseDouble(str.toString());
+    }
+    double value = mantissa;
+    if(exponent < 0)
+    {
+      value /= POW10[-exponent];
+    } else
+    {
+      value *= POW10[exponent];
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Get the length of a string encoded as UTF-8, as written by TSLWriter.
+   * Unpaired surrogates are counted as a single byte.
+   */
+  static int getUTF8Length(CharSequence str)
+  {
+    int length = str.length();
+    int bytes = length;
+    int i;
+    for(i = 0; i < length; i++)
+    {
+      char c = str.charAt(i);
+      if(c >= 0x80)
+      {
+        if(c < 0x800)
+        {
+          bytes += 1;
+        } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1)))
+        {
+          // 4 bytes for the pair.
+          bytes += 2;
+          i++;
+        } else if(!Character.isHighSurrogate(c) && !Character.isLowSurrogate(c))
+        {
+          bytes += 2;
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Encode chars as UTF-8, as written by TSLWriter.
+   * Unpaired surrogates are encoded as '?'.
+   * @param dest Destination array, must have room for the {@link #getUTF8Length(CharSequence)} bytes of the chars.
+   * @return Position in the destination after the encoded bytes.
+   */
+  static int encodeUTF8(CharSequence str, byte[] dest, int offset)
+  {
+    int length = str.length();
+    int j = offset;
+    int i;
+    for(i = 0; i < length; i++)
+    {
+      char c = str.charAt(i);
+      if(c < 0x80)
+      {
+        dest[j++] = (byte)c;
+      } else if(c < 0x800)
+      {
+        dest[j++] = (byte)(0xC0 | (c >> 6));
+        dest[j++] = (byte)(0x80 | (c & 0x3F));
+      } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1)))
+      {
+        int cp = Character.toCodePoint(c, str.charAt(++i));
+        dest[j++] = (byte)(0xF0 | (cp >> 18));
+        dest[j++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        dest[j++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        dest[j++] = (byte)(0x80 | (cp & 0x3F));
+      } else if(Character.isHighSurrogate(c) || Character.isLowSurrogate(c))
+      {
+        dest[j++] = '?';
+      } else
+      {
+        dest[j++] = (byte)(0xE0 | (c >> 12));
+        dest[j++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        dest[j++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+    return j;
+  }
+
+  /**
+   * Get the length of the UTF-8 sequence started by a byte.
+   * @return The sequence's length, or 1 for ASCII bytes and bytes that can't start a sequence.
+   */
+  static int getUTF8SequenceLength(int b)
+  {
+    b &= 0xFF;
+    if((b & 0xE0) == 0xC0)
+    {
+      return 2;
+    } else if((b & 0xF0) == 0xE0)
+    {
+      return 3;
+    } else if((b & 0xF8) == 0xF0)
+    {
+      return 4;
+    }
+    return 1;
+  }
+
+  /**
+   * Decode UTF-8 bytes to chars.
+   * Malformed sequences are decoded as U+FFFD.
+   * @param dest Destination array, must have room for at least length chars.
+   * @return Number of chars decoded.
+   */
+  static int decodeUTF8(byte[] src, int offset, int length, char[] dest, int dest_offset)
+  {
+    int end = offset + length;
+    int i = offset;
+    int j = dest_offset;
+    while(i < end)
+    {
+      int b = src[i++];
+      if(b >= 0)
+      {
+        dest[j++] = (char)b;
+        continue;
+      }
+      b &= 0xFF;
+      int cp;
+      int remaining;
+      int min;
+      if((b & 0xE0) == 0xC0)
+      {
+        cp = b & 0x1F;
+        remaining = 1;
+        min = 0x80;
+      } else if((b & 0xF0) == 0xE0)
+      {
+        cp = b & 0x0F;
+        remaining = 2;
+        min = 0x800;
+      } else if((b & 0xF8) == 0xF0)
+      {
+        cp = b & 0x07;
+        remaining = 3;
+        min = 0x10000;
+      } else
+      {
+        dest[j++] = (char)0xFFFD;
+        continue;
+      }
+      while(remaining > 0 && i < end && (src[i] & 0xC0) == 0x80)
+      {
+        cp = (cp << 6) | (src[i++] & 0x3F);
+        remaining--;
+      }
+      if(remaining > 0 || cp < min || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE))
+      {
+        dest[j++] = (char)0xFFFD;
+      } else if(cp > 0xFFFF)
+      {
+        cp -= 0x10000;
+        dest[j++] = (char)(0xD800 + (cp >>> 10));
+        dest[j++] = (char)(0xDC00 + (cp & 0x3FF));
+      } else
+      {
+        dest[j++] = (char)cp;
+      }
+    }
+    return j - dest_offset;
+  }
 }
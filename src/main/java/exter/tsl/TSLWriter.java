@@ -2,9 +2,17 @@ package exter.tsl;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Stack;
 
+/**
+ * Writes TSL to an OutputStream, a WritableByteChannel or a ByteBuffer.
+ * Output is encoded as UTF-8 into an internal byte buffer,
+ * which is written to the destination when full, and when the root value is closed.
+ */
 public class TSLWriter
 {
 
@@ -59,9 +67,32 @@ public class TSLWriter
     }
   }
 
-  private static final String ERROR_ROOTCLOSED = "Root TSL Object already closed.";
+  static final String ERROR_ROOTCLOSED = "Root TSL Object already closed.";
   
-  private OutputStreamWriter osw;
+  // Size of the output buffer.
+  private static final int BUFFER_SIZE = 8192;
+
+  // Maximum number of output buffers written to a channel at once.
+  private static final int MAX_CHUNKS = 16;
+
+  // Destination, only one is set.
+  private OutputStream os;
+  private WritableByteChannel channel;
+  private ByteBuffer target;
+
+  // Full output buffers waiting to be written to the channel.
+  private byte[][] chunks;
+  private ByteBuffer[] chunk_buffers;
+  private int chunk_count;
+
+  // Output buffer.
+  byte[] buffer;
+  int buffer_length;
+
+  // Newline followed by the indentation of the deepest level written so far.
+  private byte[] indent_bytes;
+  // Indentation size indent_bytes was built with.
+  private int indent_bytes_indent;
   private int level;
   private boolean first_element;
   private boolean root_element;
@@ -70,62 +101,352 @@ public class TSLWriter
   private Stack<Formatter> formatter_stack;
 
 
-  private void writeSeparator(boolean put_comma) throws IOException
+  /**
+   * Write the output buffer to the destination.
+   * For a channel, the buffer is queued and the queue is written once full.
+   */
+  private void flushBuffer() throws IOException
   {
-    if(root_element)
+    if(buffer_length == 0)
     {
       return;
     }
-    if(put_comma && !first_element)
+    if(os != null)
     {
-      osw.write(',');
-    }
-    if(formatter.getNewLine())
+      os.write(buffer, 0, buffer_length);
+    } else if(target != null)
     {
-      osw.write("\n");
-      int i;
-      for(i = 0; i < level; i++)
+      if(target.remaining() < buffer_length)
       {
-        osw.write(formatter.getIndentString());
+        // The output can't be completed, discard it and close the writer.
+        buffer_length = 0;
+        level = 0;
+        closed = true;
+        throw new BufferOverflowException();
       }
+      target.put(buffer, 0, buffer_length);
     } else
     {
-      osw.write(' ');
+      if(chunk_count == MAX_CHUNKS)
+      {
+        writeChunks();
+      }
+      // Swap the output buffer with the queue slot's spare array.
+      byte[] full = buffer;
+      buffer = chunks[chunk_count];
+      if(buffer == null || buffer.length < BUFFER_SIZE)
+      {
+        buffer = new byte[BUFFER_SIZE];
+      }
+      chunks[chunk_count] = full;
+      chunk_buffers[chunk_count] = ByteBuffer.wrap(full, 0, buffer_length);
+      chunk_count++;
     }
+    buffer_length = 0;
   }
-  
-  private String encodeValue(String value)
+
+  /**
+   * Write the queued output buffers to the channel, with a gathering write if the channel supports it.
+   */
+  private void writeChunks() throws IOException
   {
-    StringBuilder builder = new StringBuilder();
+    if(chunk_count == 0)
+    {
+      return;
+    }
+    if(channel instanceof GatheringByteChannel)
+    {
+      GatheringByteChannel gathering = (GatheringByteChannel)channel;
+      int first = 0;
+      while(first < chunk_count)
+      {
+        gathering.write(chunk_buffers, first, chunk_count - first);
+        while(first < chunk_count && !chunk_buffers[first].hasRemaining())
+        {
+          first++;
+        }
+      }
+    } else
+    {
+      int i;
+      for(i = 0; i < chunk_count; i++)
+      {
+        while(chunk_buffers[i].hasRemaining())
+        {
+          channel.write(chunk_buffers[i]);
+        }
+      }
+    }
     int i;
-    for(i = 0; i < value.length(); i++)
+    for(i = 0; i < chunk_count; i++)
     {
-      char c = value.charAt(i);
-      switch(c)
+      chunk_buffers[i] = null;
+    }
+    chunk_count = 0;
+  }
+
+  /**
+   * Make room for at least the given number of bytes in the output buffer.
+   */
+  void reserve(int length) throws IOException
+  {
+    if(buffer_length + length > buffer.length)
+    {
+      flushBuffer();
+      if(length > buffer.length)
       {
-        case '"':
-          builder.append("\\\"");
-          break;
-        case '\\':
-          builder.append("\\\\");
+        buffer = new byte[length];
+      }
+    }
+  }
+
+  void writeByte(int b) throws IOException
+  {
+    if(buffer_length == buffer.length)
+    {
+      flushBuffer();
+    }
+    buffer[buffer_length++] = (byte)b;
+  }
+
+  void writeBytes(byte[] bytes, int offset, int length) throws IOException
+  {
+    reserve(length);
+    System.arraycopy(bytes, offset, buffer, buffer_length, length);
+    buffer_length += length;
+  }
+
+  /**
+   * Write a string as UTF-8, escaping quotes and backslashes if needed.
+   */
+  void writeChars(String str, boolean escape) throws IOException
+  {
+    int length = str.length();
+    int i = 0;
+    while(i < length)
+    {
+      // Copy a run of characters that don't need escaping or encoding.
+      if(buffer_length == buffer.length)
+      {
+        flushBuffer();
+      }
+      byte[] buf = buffer;
+      int pos = buffer_length;
+      int run_end = i + (buf.length - pos);
+      if(run_end > length)
+      {
+        run_end = length;
+      }
+      while(i < run_end)
+      {
+        char c = str.charAt(i);
+        if(c >= 0x80 || c == '"' || c == '\\')
+        {
           break;
-        default:
-          builder.append(c);  
+        }
+        buf[pos++] = (byte)c;
+        i++;
       }
-    }    
-    return builder.toString();
+      buffer_length = pos;
+      if(i == run_end)
+      {
+        continue;
+      }
+      char c = str.charAt(i++);
+      if(c < 0x80)
+      {
+        if(escape)
+        {
+          writeByte('\\');
+        }
+        writeByte(c);
+      } else if(c < 0x800)
+      {
+        reserve(2);
+        buffer[buffer_length++] = (byte)(0xC0 | (c >> 6));
+        buffer[buffer_length++] = (byte)(0x80 | (c & 0x3F));
+      } else if(Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(str.charAt(i)))
+      {
+        int cp = Character.toCodePoint(c, str.charAt(i++));
+        reserve(4);
+        buffer[buffer_length++] = (byte)(0xF0 | (cp >> 18));
+        buffer[buffer_length++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        buffer[buffer_length++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        buffer[buffer_length++] = (byte)(0x80 | (cp & 0x3F));
+      } else if(Character.isHighSurrogate(c) || Character.isLowSurrogate(c))
+      {
+        // Unpaired surrogate.
+        writeByte('?');
+      } else
+      {
+        reserve(3);
+        buffer[buffer_length++] = (byte)(0xE0 | (c >> 12));
+        buffer[buffer_length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        buffer[buffer_length++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  /**
+   * Write UTF-8 bytes, escaping quotes and backslashes.
+   */
+  private void writeEscapedBytes(byte[] bytes, int offset, int length) throws IOException
+  {
+    int end = offset + length;
+    int start = offset;
+    int i;
+    for(i = offset; i < end; i++)
+    {
+      byte b = bytes[i];
+      if(b == '"' || b == '\\')
+      {
+        writeBytes(bytes, start, i - start);
+        writeByte('\\');
+        start = i;
+      }
+    }
+    writeBytes(bytes, start, end - start);
+  }
+
+  /**
+   * Write a newline followed by the indentation of the current level.
+   */
+  private void writeIndent() throws IOException
+  {
+    int indent = formatter.indent;
+    int length = 1 + level * indent;
+    if(indent_bytes == null || indent_bytes_indent != indent || indent_bytes.length < length)
+    {
+      indent_bytes = new byte[Math.max(length, 1 + 8 * indent)];
+      indent_bytes[0] = '\n';
+      int i;
+      for(i = 1; i < indent_bytes.length; i++)
+      {
+        indent_bytes[i] = ' ';
+      }
+      indent_bytes_indent = indent;
+    }
+    writeBytes(indent_bytes, 0, length);
   }
 
+  private void writeSeparator(boolean put_comma) throws IOException
+  {
+    if(root_element)
+    {
+      return;
+    }
+    if(put_comma && !first_element)
+    {
+      writeByte(',');
+    }
+    if(formatter.getNewLine())
+    {
+      writeIndent();
+    } else
+    {
+      writeByte(' ');
+    }
+  }
+  
+  /**
+   * Write all buffered output to the destination, and flush the stream.
+   */
+  void flushStream() throws IOException
+  {
+    flushBuffer();
+    if(os != null)
+    {
+      os.flush();
+    } else if(channel != null)
+    {
+      writeChunks();
+    }    
+  }
   
   public TSLWriter(OutputStream os)
   {
-    osw = new OutputStreamWriter(os);
+    init();
+    this.os = os;
+  }
+
+  /**
+   * Create a writer that writes to a channel.
+   * Output is queued in buffers of 8 KB that are written together with a gathering write
+   * when the channel is a GatheringByteChannel.
+   * The channel must be in blocking mode, and is not closed by the writer.
+   * @param channel Destination channel.
+   */
+  public TSLWriter(WritableByteChannel channel)
+  {
+    init();
+    this.channel = channel;
+    chunks = new byte[MAX_CHUNKS][];
+    chunk_buffers = new ByteBuffer[MAX_CHUNKS];
+    chunk_count = 0;
+  }
+
+  /**
+   * Create a writer that writes into a buffer, starting at the buffer's position.
+   * @param target Destination buffer.
+   * @throws BufferOverflowException from the writing methods if the output does not fit in the buffer,
+   * the buffered output is then discarded and the writer is closed until it's reset.
+   */
+  public TSLWriter(ByteBuffer target)
+  {
+    init();
+    this.target = target;
+  }
+
+  private void init()
+  {
+    buffer = new byte[BUFFER_SIZE];
+    indent_bytes = null;
+    formatter = new Formatter(2,true);
+    formatter_stack = new Stack<Formatter>();
+    resetState();
+  }
+
+  // Reset the writing state to the start of an output.
+  private void resetState()
+  {
+    os = null;
+    channel = null;
+    target = null;
+    chunk_count = 0;
+    buffer_length = 0;
     level = 0;
     first_element = true;
     root_element = true;
     closed = false;
-    formatter = new Formatter(2,true);
-    formatter_stack = new Stack<Formatter>();
+  }
+
+  /**
+   * Reset the writer to write a new TSL to an output stream.
+   * Unwritten output is discarded, and the formatter is reset to its defaults.
+   * The writer's internal buffers are kept.
+   * @param os Output stream.
+   */
+  public void reset(OutputStream os)
+  {
+    if(chunks != null)
+    {
+      int i;
+      for(i = 0; i < chunk_buffers.length; i++)
+      {
+        chunk_buffers[i] = null;
+      }
+    }
+    while(formatter_stack.size() > 0)
+    {
+      formatter = formatter_stack.pop();
+    }
+    if(formatter.indent != 2)
+    {
+      formatter.setIndent(2);
+    }
+    formatter.setNewLine(true);
+    resetState();
+    this.os = os;
   }
     
 
@@ -162,18 +483,50 @@ public class TSLWriter
     {
       throw new IllegalStateException(ERROR_ROOTCLOSED);
     }
+    writeSeparator(true);
+
+    writeChars(name, false);
+    reserve(2);
+    buffer[buffer_length++] = ' ';
+    buffer[buffer_length++] = '"';
+    writeChars(value, true);
+    writeByte('"');
+
+    first_element = false;
     if(root_element)
     {
       closed = true;
+      flushStream();
+    }
+    return this;
+  }
+  
+  /**
+   * Put a string value stored as UTF-8, the bytes are copied without decoding.
+   */
+  TSLWriter putUTF8String(String name, byte[] bytes, int offset, int length) throws IOException
+  {
+    TSLUtil.validateValueName(name);
+
+    if(closed)
+    {
+      throw new IllegalStateException(ERROR_ROOTCLOSED);
     }
     writeSeparator(true);
 
-    osw.write(name);
-    osw.write(" \"");
-    osw.write(encodeValue(value));
-    osw.write('"');
+    writeChars(name, false);
+    reserve(2);
+    buffer[buffer_length++] = ' ';
+    buffer[buffer_length++] = '"';
+    writeEscapedBytes(bytes, offset, length);
+    writeByte('"');
     
     first_element = false;
+    if(root_element)
+    {
+      closed = true;
+      flushStream();
+    }
     return this;
   }
   
@@ -189,8 +542,10 @@ public class TSLWriter
     
     writeSeparator(true);
 
-    osw.write(name);
-    osw.write(" [");
+    writeChars(name, false);
+    reserve(2);
+    buffer[buffer_length++] = ' ';
+    buffer[buffer_length++] = '[';
     first_element = true;
     root_element = false;
     level++;
@@ -210,10 +565,10 @@ public class TSLWriter
     level--;
     writeSeparator(false);
 
-    osw.write("]");
+    writeByte(']');
     if(level == 0)
     {
-      osw.flush();
+      flushStream();
       closed = true;
     }
     root_element = false;
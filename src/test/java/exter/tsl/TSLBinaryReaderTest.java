@@ -0,0 +1,97 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TSLBinaryReaderTest
+{
+  // Root object "r" holding a string "s" whose length prefix claims 128 MB.
+  static private final byte[] HOSTILE =
+  {
+    'T', 'S', 'L', 'B', TSLBinaryReader.VERSION,
+    TSLBinaryReader.TAG_OBJECT, 0, 1, 'r',
+    TSLBinaryReader.TAG_STRING, 0, 1, 's',
+    (byte)0x80, (byte)0x80, (byte)0x80, (byte)0x40,
+    'x', 'y', 'z'
+  };
+
+  static private byte[] write(TSLObject obj) throws IOException
+  {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    obj.write(new TSLBinaryWriter(os), "root");
+    return os.toByteArray();
+  }
+
+  static private void assertRejected(TSLReader reader) throws IOException
+  {
+    try
+    {
+      TSLTestData.events(reader);
+      fail("Read invalid TSLB.");
+    } catch(InvalidTSLException e)
+    {
+    }
+  }
+
+  @Test
+  public void writtenObjectsReadBackEqual() throws Exception
+  {
+    Random random = new Random(8);
+    int round;
+    for(round = 0; round < 300; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] data = write(obj);
+      assertEquals(obj, TSLTestData.read(new TSLBinaryReader(new ByteArrayInputStream(data))));
+      assertEquals(obj, TSLTestData.read(new TSLBinaryReader(new TSLTestData.ChunkedInputStream(data, random, 5))));
+      assertEquals(obj, TSLTestData.read(new TSLBinaryReader(ByteBuffer.wrap(data))));
+    }
+  }
+
+  @Test
+  public void stringsSpanningInputBlocksReadBackEqual() throws Exception
+  {
+    StringBuilder builder = new StringBuilder();
+    while(builder.length() < 100000)
+    {
+      builder.append("long value \u00e9\u4e2d\ud83d\ude00 ");
+    }
+    TSLObject obj = new TSLObject();
+    obj.putString("long", builder.toString());
+    obj.putString("short", "value");
+    byte[] data = write(obj);
+    assertEquals(obj, TSLTestData.read(new TSLBinaryReader(new TSLTestData.ChunkedInputStream(data, new Random(9), 1000))));
+  }
+
+  @Test(timeout = 10000)
+  public void hostileLengthIsRejected() throws Exception
+  {
+    assertRejected(new TSLBinaryReader(ByteBuffer.wrap(HOSTILE)));
+    assertRejected(new TSLBinaryReader(new ByteArrayInputStream(HOSTILE)));
+    TSLBinaryReader reader = new TSLBinaryReader(new ByteArrayInputStream(HOSTILE));
+    reader.setMaxStringLength(1024);
+    assertRejected(reader);
+  }
+
+  @Test
+  public void truncatedInputIsRejected() throws Exception
+  {
+    byte[] data = write(TSLTestData.randomObject(new Random(10), 3));
+    int length;
+    for(length = 0; length < data.length; length++)
+    {
+      byte[] truncated = new byte[length];
+      System.arraycopy(data, 0, truncated, 0, length);
+      assertRejected(new TSLBinaryReader(ByteBuffer.wrap(truncated)));
+      assertRejected(new TSLBinaryReader(new ByteArrayInputStream(truncated)));
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TSLBlockWriterTest
+{
+  private ExecutorService executor;
+
+  @Before
+  public void createExecutor()
+  {
+    executor = Executors.newFixedThreadPool(3);
+  }
+
+  @After
+  public void shutdownExecutor()
+  {
+    executor.shutdownNow();
+  }
+
+  // Write an object with small blocks, so most documents span several blocks.
+  static private byte[] write(TSLObject obj, int block_size) throws IOException
+  {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    TSLBlockWriter writer = new TSLBlockWriter(os, block_size, Deflater.DEFAULT_COMPRESSION);
+    try
+    {
+      writer.write(obj, "root");
+    } finally
+    {
+      writer.close();
+    }
+    return os.toByteArray();
+  }
+
+  @Test
+  public void blocksReadBackEqual() throws Exception
+  {
+    Random random = new Random(11);
+    int round;
+    for(round = 0; round < 200; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] data = write(obj, 1 + random.nextInt(300));
+      TSLReader reader = new TSLReader(new TSLBlockInputStream(new ByteArrayInputStream(data)));
+      reader.moveNext();
+      assertEquals("root", reader.getName());
+      assertEquals(obj, new TSLObject(reader));
+      assertEquals(obj, TSLObject.parseBlocks(new ByteArrayInputStream(data), executor));
+    }
+  }
+
+  @Test
+  public void blocksReadAsTheWrittenText() throws Exception
+  {
+    Random random = new Random(12);
+    int round;
+    for(round = 0; round < 100; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] data = write(obj, TSLBlockWriter.DEFAULT_BLOCK_SIZE);
+      TSLReader reader = new TSLReader(new TSLBlockInputStream(new ByteArrayInputStream(data)));
+      assertEquals(TSLTestData.events(new TSLReader(TSLTestData.write(obj))), TSLTestData.events(reader));
+    }
+  }
+
+  @Test
+  public void truncatedStreamsAreRejected() throws Exception
+  {
+    byte[] data = write(TSLTestData.randomObject(new Random(13), 3), 64);
+    int length;
+    for(length = 0; length < data.length; length++)
+    {
+      byte[] truncated = new byte[length];
+      System.arraycopy(data, 0, truncated, 0, length);
+      try
+      {
+        TSLObject.parseBlocks(new ByteArrayInputStream(truncated), executor);
+        fail("Parsed a truncated block stream.");
+      } catch(IOException e)
+      {
+      } catch(InvalidTSLException e)
+      {
+      }
+    }
+  }
+
+  // Create a stream with a single block with the specified lengths.
+  static private byte[] header(int block_length, int length) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream os = new DataOutputStream(bytes);
+    os.write(TSLBlockWriter.MAGIC);
+    os.writeByte(TSLBlockWriter.VERSION);
+    os.writeUTF("root");
+    os.writeInt(block_length);
+    os.writeInt(length);
+    os.write(new byte[16]);
+    os.writeInt(0);
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void invalidBlockLengthsAreRejected() throws Exception
+  {
+    int[][] lengths =
+    {
+      { Integer.MAX_VALUE, 16 },
+      { TSLBlockWriter.MAX_BLOCK_LENGTH + 1, 16 },
+      { -1, 16 },
+      { 16, Integer.MAX_VALUE - 1 },
+      { 16, -1 },
+      { 16, 16 }
+    };
+    for(int[] length : lengths)
+    {
+      byte[] data = header(length[0], length[1]);
+      try
+      {
+        TSLObject.parseBlocks(new ByteArrayInputStream(data), executor);
+        fail("Parsed an invalid block stream.");
+      } catch(ZipException e)
+      {
+      }
+      try
+      {
+        TSLReader reader = new TSLReader(new TSLBlockInputStream(new ByteArrayInputStream(data)));
+        TSLTestData.events(reader);
+        fail("Read an invalid block stream.");
+      } catch(ZipException e)
+      {
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TSLByteArenaTest
+{
+  // Load a document with its string values stored as UTF-8.
+  static private TSLObject loadUTF8(byte[] data, TSLByteArena arena) throws Exception
+  {
+    TSLReader reader = new TSLReader(new ByteArrayInputStream(data));
+    reader.moveNext();
+    return TSLObject.loadUTF8(reader, arena);
+  }
+
+  // Check that two objects have the same string values, compared as Strings.
+  static private void assertSameStrings(TSLObject expected, TSLObject actual)
+  {
+    for(String name : expected.getStringNames())
+    {
+      assertEquals(expected.getStringList(name), actual.getStringList(name));
+      assertEquals(expected.getString(name, null), actual.getString(name, null));
+    }
+    for(String name : expected.getObjectNames())
+    {
+      List<TSLObject> children = expected.getObjectList(name);
+      int i;
+      for(i = 0; i < children.size(); i++)
+      {
+        assertSameStrings(children.get(i), actual.getObjectList(name).get(i));
+      }
+    }
+  }
+
+  // Get the total UTF-8 length of an object's string values.
+  static private long utf8Length(TSLObject obj) throws Exception
+  {
+    long length = 0;
+    for(String name : obj.getStringNames())
+    {
+      for(String value : obj.getStringList(name))
+      {
+        length += value.getBytes("UTF-8").length;
+      }
+    }
+    for(String name : obj.getObjectNames())
+    {
+      for(TSLObject child : obj.getObjectList(name))
+      {
+        length += utf8Length(child);
+      }
+    }
+    return length;
+  }
+
+  @Test
+  public void utf8ObjectsEqualStringObjects() throws Exception
+  {
+    Random random = new Random(19);
+    int round;
+    for(round = 0; round < 200; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] data = TSLTestData.write(obj);
+      // Small chunks, so values are split across chunks and large values get their own arrays.
+      TSLByteArena arena = new TSLByteArena(1 + random.nextInt(64));
+      TSLObject[] loaded = { loadUTF8(data, null), loadUTF8(data, arena), loadUTF8(data, new TSLByteArena()) };
+      assertEquals(utf8Length(obj), arena.getSize());
+      for(TSLObject utf8 : loaded)
+      {
+        assertEquals(obj, utf8);
+        assertEquals(utf8, obj);
+        assertEquals(obj.hashCode(), utf8.hashCode());
+        assertEquals(obj.getContentHash(), utf8.getContentHash());
+        assertSameStrings(obj, utf8);
+        assertArrayEquals(data, TSLTestData.write(utf8));
+        assertEquals(obj, utf8.toBuilder());
+        assertEquals(obj.toBuilder().freeze(), utf8.freeze());
+        assertEquals(obj.getContentHash(), utf8.getContentHash());
+      }
+      assertEquals(loaded[0], loaded[1]);
+    }
+  }
+
+  @Test
+  public void valuesPutAfterLoadingCompareByContent() throws Exception
+  {
+    TSLObject obj = new TSLObject();
+    obj.putString("a", "\u00fcnic\u00f6de \ud83d\ude00");
+    obj.putString("b", "");
+    obj.putString("a", "plain");
+    TSLObject utf8 = loadUTF8(TSLTestData.write(obj), new TSLByteArena(8));
+    long hash = utf8.getContentHash();
+    utf8.putString("c", "\u4e2d\u6587");
+    assertNotEquals(hash, utf8.getContentHash());
+    obj.putString("c", "\u4e2d\u6587");
+    assertEquals(obj, utf8);
+    assertEquals(obj.getContentHash(), utf8.getContentHash());
+    utf8.removeValues("a");
+    obj.removeValues("a");
+    assertEquals(obj, utf8);
+    assertArrayEquals(TSLTestData.write(obj), TSLTestData.write(utf8));
+  }
+}
@@ -0,0 +1,116 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TSLConcurrentObjectTest
+{
+  static private final int THREADS = 8;
+  static private final int VALUES = 20000;
+
+  // Check that each thread's values are a prefix of the values it put, in order, return the number of values.
+  static private int checkOrder(List<String> values, int count)
+  {
+    int[] next = new int[THREADS];
+    for(String value : values)
+    {
+      int sep = value.indexOf(':');
+      int thread = Integer.parseInt(value.substring(0, sep));
+      assertEquals(next[thread], Integer.parseInt(value.substring(sep + 1)));
+      next[thread]++;
+    }
+    int total = 0;
+    int i;
+    for(i = 0; i < THREADS; i++)
+    {
+      assertTrue(next[i] <= count);
+      total += next[i];
+    }
+    return total;
+  }
+
+  @Test
+  public void concurrentPutsAreAllInTheSnapshotInOrder() throws Exception
+  {
+    final TSLConcurrentObject obj = new TSLConcurrentObject();
+    final AtomicInteger ids = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicInteger running = new AtomicInteger(THREADS);
+    Thread[] workers = new Thread[THREADS];
+    int i;
+    for(i = 0; i < THREADS; i++)
+    {
+      workers[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            int id = ids.getAndIncrement();
+            TSLConcurrentObject shared = obj.getOrCreateObject("shared");
+            int j;
+            for(j = 0; j < VALUES; j++)
+            {
+              obj.putString("v", id + ":" + j);
+              shared.putString("s" + (j % 4), id + ":" + (j / 4));
+              if(j % 1000 == 0)
+              {
+                obj.putString("t" + id, j);
+              }
+            }
+          } catch(Throwable e)
+          {
+            failures.incrementAndGet();
+          } finally
+          {
+            running.decrementAndGet();
+          }
+        }
+      };
+    }
+    for(Thread t : workers)
+    {
+      t.start();
+    }
+    // Snapshots taken while values are put see a prefix of each thread's values.
+    int snapshots = 0;
+    while(running.get() > 0 || snapshots == 0)
+    {
+      TSLObject snapshot = obj.toObject();
+      checkOrder(snapshot.getStringList("v"), VALUES);
+      checkOrder(obj.getStringList("v"), VALUES);
+      snapshots++;
+    }
+    for(Thread t : workers)
+    {
+      t.join();
+    }
+    assertEquals(0, failures.get());
+
+    TSLObject result = obj.toObject();
+    assertEquals(THREADS * VALUES, checkOrder(result.getStringList("v"), VALUES));
+    TSLObject shared = result.getObject("shared");
+    for(i = 0; i < 4; i++)
+    {
+      assertEquals(THREADS * VALUES / 4, checkOrder(shared.getStringList("s" + i), VALUES / 4));
+    }
+    for(i = 0; i < THREADS; i++)
+    {
+      List<String> marks = result.getStringList("t" + i);
+      assertEquals(VALUES / 1000, marks.size());
+      int j;
+      for(j = 0; j < marks.size(); j++)
+      {
+        assertEquals(String.valueOf(j * 1000), marks.get(j));
+      }
+    }
+    // Each name is in the snapshot once.
+    assertEquals(THREADS + 2, result.getStringNames().size() + result.getObjectNames().size());
+  }
+}
@@ -0,0 +1,155 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TSLConfigSourceTest
+{
+  private File file;
+  private ScheduledExecutorService executor;
+
+  @Before
+  public void createFile() throws IOException
+  {
+    file = File.createTempFile("tsl", ".tsl");
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void deleteFile()
+  {
+    executor.shutdownNow();
+    file.delete();
+  }
+
+  private void write(String tsl) throws IOException
+  {
+    FileOutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(tsl.getBytes("UTF-8"));
+    } finally
+    {
+      os.close();
+    }
+  }
+
+  // Listener that records the reloaded roots and errors, throwing on the first reload.
+  static private final class ThrowingListener implements TSLConfigSource.Listener
+  {
+    final BlockingQueue<TSLObject> reloads = new LinkedBlockingQueue<TSLObject>();
+    final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<Throwable>();
+    private boolean thrown = false;
+    private final RuntimeException exception;
+    private final Error error;
+
+    ThrowingListener(RuntimeException exception, Error error)
+    {
+      this.exception = exception;
+      this.error = error;
+    }
+
+    public void onReload(File file, TSLObject root)
+    {
+      reloads.add(root);
+      if(!thrown)
+      {
+        thrown = true;
+        if(exception != null)
+        {
+          throw exception;
+        }
+        if(error != null)
+        {
+          throw error;
+        }
+      }
+    }
+
+    public void onError(File file, Throwable e)
+    {
+      errors.add(e);
+      throw new IllegalStateException("Listener failure.");
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void editsKeepingTheMetadataAreReloaded() throws Exception
+  {
+    write("root [ value \"1\" ]");
+    long modified = file.lastModified();
+    ThrowingListener listener = new ThrowingListener(new IllegalStateException("Listener failure."), null);
+    TSLConfigSource source = new TSLConfigSource(new File[] { file }, executor, 10, 0, TimeUnit.MILLISECONDS, listener);
+    source.start();
+    try
+    {
+      // Same length and modification time.
+      write("root [ value \"2\" ]");
+      file.setLastModified(modified);
+      assertEquals("2", listener.reloads.take().getString("value", null));
+      // The listener's error didn't stop the polling.
+      write("root [ value \"3\" ]");
+      file.setLastModified(modified);
+      assertEquals("3", listener.reloads.take().getString("value", null));
+      assertEquals("3", source.getRoot().getString("value", null));
+    } finally
+    {
+      source.close();
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void invalidFilesAreReportedAndPollingContinues() throws Exception
+  {
+    write("root [ value \"1\" ]");
+    ThrowingListener listener = new ThrowingListener(null, null);
+    TSLConfigSource source = new TSLConfigSource(new File[] { file }, executor, 10, 0, TimeUnit.MILLISECONDS, listener);
+    source.start();
+    try
+    {
+      write("root [ value \"2\" ");
+      assertTrue(listener.errors.take() instanceof InvalidTSLException);
+      assertEquals("1", source.getRoot().getString("value", null));
+      write("root [ value \"3\" ]");
+      assertEquals("3", listener.reloads.take().getString("value", null));
+      assertEquals("3", source.getRoot().getString("value", null));
+    } finally
+    {
+      source.close();
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void errorsStopThePolling() throws Exception
+  {
+    write("root [ value \"1\" ]");
+    ThrowingListener listener = new ThrowingListener(null, new AssertionError("Listener failure."));
+    TSLConfigSource source = new TSLConfigSource(new File[] { file }, executor, 10, 0, TimeUnit.MILLISECONDS, listener);
+    source.start();
+    try
+    {
+      write("root [ value \"22\" ]");
+      assertEquals("22", listener.reloads.take().getString("value", null));
+      write("root [ value \"333\" ]");
+      assertNull(listener.reloads.poll(500, TimeUnit.MILLISECONDS));
+      assertEquals("22", source.getRoot().getString("value", null));
+    } finally
+    {
+      source.close();
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TSLDiffTest
+{
+  // Get a value in insertion order.
+  static private Object valueAt(TSLObject obj, int i)
+  {
+    String name = obj.getValueName(i);
+    boolean object = obj.isObjectValue(i);
+    int n = 0;
+    int j;
+    for(j = 0; j < i; j++)
+    {
+      if(obj.isObjectValue(j) == object && obj.getValueName(j).equals(name))
+      {
+        n++;
+      }
+    }
+    return object ? obj.getObjectList(name).get(n) : obj.getStringList(name).get(n);
+  }
+
+  // Create a value to add to an object, an empty object if allowed.
+  static private Object randomValue(Random random, boolean empty)
+  {
+    switch(random.nextInt(empty ? 3 : 2))
+    {
+      case 0:
+        return TSLTestData.randomString(random);
+      case 1:
+        return TSLTestData.randomObject(random, 2);
+      default:
+        return new TSLObject();
+    }
+  }
+
+  // Create a changed copy of an object: values are removed, replaced, added and moved at random.
+  static private TSLObject mutate(TSLObject obj, Random random, boolean empty)
+  {
+    List<String> names = new ArrayList<String>();
+    List<Object> values = new ArrayList<Object>();
+    int i;
+    for(i = 0; i < obj.getValueCount(); i++)
+    {
+      String name = obj.getValueName(i);
+      Object value = valueAt(obj, i);
+      switch(random.nextInt(6))
+      {
+        case 0:
+          continue;
+        case 1:
+          value = value instanceof TSLObject ? mutate((TSLObject)value, random, empty) : TSLTestData.randomString(random);
+          break;
+        case 2:
+          names.add(TSLTestData.randomName(random));
+          values.add(randomValue(random, empty));
+          break;
+      }
+      names.add(name);
+      values.add(value);
+    }
+    if(names.isEmpty() || random.nextBoolean())
+    {
+      names.add(TSLTestData.randomName(random));
+      values.add(randomValue(random, false));
+    }
+    if(random.nextBoolean())
+    {
+      int from = random.nextInt(names.size());
+      int to = random.nextInt(names.size());
+      names.add(to, names.remove(from));
+      values.add(to, values.remove(from));
+    }
+    TSLObject result = new TSLObject();
+    for(i = 0; i < names.size(); i++)
+    {
+      Object value = values.get(i);
+      if(value instanceof TSLObject)
+      {
+        result.putObject(names.get(i), (TSLObject)value);
+      } else
+      {
+        result.putString(names.get(i), (String)value);
+      }
+    }
+    return result;
+  }
+
+  static private TSLObject copy(TSLObject obj) throws InvalidTSLException, IOException
+  {
+    return TSLTestData.read(new TSLReader(new ByteArrayInputStream(TSLTestData.write(obj))));
+  }
+
+  // Check if two objects have the same names and kinds in the same order, including their child objects.
+  static private void assertSameOrder(TSLObject expected, TSLObject actual)
+  {
+    assertEquals(expected.getValueCount(), actual.getValueCount());
+    int i;
+    for(i = 0; i < expected.getValueCount(); i++)
+    {
+      assertEquals(expected.getValueName(i), actual.getValueName(i));
+      assertEquals(expected.isObjectValue(i), actual.isObjectValue(i));
+      if(expected.isObjectValue(i))
+      {
+        assertSameOrder((TSLObject)valueAt(expected, i), (TSLObject)valueAt(actual, i));
+      }
+    }
+  }
+
+  @Test
+  public void patchedObjectsEqualTheTarget() throws Exception
+  {
+    Random random = new Random(23);
+    int i;
+    for(i = 0; i < 300; i++)
+    {
+      TSLObject source = TSLTestData.randomObject(random, 3);
+      TSLObject target = mutate(source, random, true);
+      TSLObject obj = copy(source);
+      TSLDiff.apply(obj, TSLDiff.diff(source, target));
+      assertEquals(target, obj);
+      assertSameOrder(target, obj);
+      assertArrayEquals(TSLTestData.write(target), TSLTestData.write(obj));
+    }
+  }
+
+  @Test
+  public void writtenPatchesApplyTheSame() throws Exception
+  {
+    Random random = new Random(24);
+    int i;
+    for(i = 0; i < 300; i++)
+    {
+      TSLObject source = TSLTestData.randomObject(random, 3);
+      TSLObject target = mutate(source, random, false);
+      TSLObject patch = TSLDiff.diff(source, target);
+      if(patch.getValueCount() == 0)
+      {
+        assertEquals(source, target);
+        continue;
+      }
+      TSLObject obj = copy(source);
+      TSLDiff.apply(obj, copy(patch));
+      assertEquals(target, obj);
+      assertSameOrder(target, obj);
+    }
+  }
+
+  @Test
+  public void appendedEmptyObjectsKeepTheirPositions() throws Exception
+  {
+    TSLObject source = new TSLObject();
+    source.putString("a", "1");
+    TSLObject child = new TSLObject();
+    child.putString("b", "2");
+    TSLObject target = new TSLObject();
+    target.putObject("x", new TSLObject());
+    target.putString("a", "1");
+    target.putObject("x", child);
+    target.putObject("x", new TSLObject());
+    TSLObject obj = copy(source);
+    TSLDiff.apply(obj, copy(TSLDiff.diff(source, target)));
+    assertEquals(target, obj);
+    assertSameOrder(target, obj);
+  }
+
+  @Test
+  public void changedFirstStringOnlySendsThatString() throws Exception
+  {
+    TSLObject source = new TSLObject();
+    int i;
+    for(i = 0; i < 100; i++)
+    {
+      source.putString("v", i);
+    }
+    TSLObject target = source.toBuilder();
+    target.truncateValues("v", false, 0);
+    target.putString("v", "first");
+    for(i = 1; i < 100; i++)
+    {
+      target.putString("v", i);
+    }
+    TSLObject patch = TSLDiff.diff(source, target);
+    assertEquals(1, patch.getObjectList("s").get(0).getStringList("v").size());
+    TSLObject obj = copy(source);
+    TSLDiff.apply(obj, patch);
+    assertEquals(target, obj);
+  }
+
+  @Test
+  public void frozenChildObjectsArePatchedWithFrozenCopies() throws Exception
+  {
+    Random random = new Random(25);
+    int i;
+    for(i = 0; i < 100; i++)
+    {
+      TSLObject source = TSLTestData.randomObject(random, 3).freeze();
+      byte[] text = TSLTestData.write(source);
+      TSLObject target = mutate(source, random, true);
+      TSLObject obj = source.toBuilder();
+      TSLDiff.apply(obj, TSLDiff.diff(source, target));
+      assertEquals(target, obj);
+      assertSameOrder(target, obj);
+      // Patched children stay frozen, appended ones are mutable copies.
+      for(String name : obj.getObjectNames())
+      {
+        List<TSLObject> children = obj.getObjectList(name);
+        int n = Math.min(children.size(), source.getObjectList(name).size());
+        int j;
+        for(j = 0; j < n; j++)
+        {
+          assertTrue(children.get(j).isFrozen());
+        }
+      }
+      assertArrayEquals(text, TSLTestData.write(source));
+    }
+  }
+}
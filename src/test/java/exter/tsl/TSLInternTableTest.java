@@ -0,0 +1,150 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+public class TSLInternTableTest
+{
+  static private TSLObject loadCanonical(byte[] data, TSLInternTable table) throws Exception
+  {
+    TSLReader reader = new TSLReader(new ByteArrayInputStream(data));
+    reader.moveNext();
+    return TSLObject.loadCanonical(reader, table);
+  }
+
+  // Create a document whose items share a common child object.
+  static private TSLObject document(TSLObject shared, int items)
+  {
+    TSLObject obj = new TSLObject();
+    int i;
+    for(i = 0; i < items; i++)
+    {
+      TSLObject item = new TSLObject();
+      item.putString("kind", "item");
+      item.putString("index", i);
+      item.putObject("shared", shared);
+      obj.putObject("item", item);
+    }
+    return obj;
+  }
+
+  @Test
+  public void equalValuesAreTheSameInstanceAcrossDocuments() throws Exception
+  {
+    Random random = new Random(25);
+    TSLObject shared = TSLTestData.randomObject(random, 3);
+    TSLInternTable table = new TSLInternTable();
+    TSLObject a = loadCanonical(TSLTestData.write(document(shared, 10)), table);
+    TSLObject b = loadCanonical(TSLTestData.write(document(shared, 20)), table);
+    assertTrue(a.isFrozen());
+    assertEquals(document(shared, 10), a);
+    TSLObject first = a.getObjectList("item").get(0);
+    String kind = first.getString("kind", null);
+    TSLObject child = first.getObject("shared");
+    for(TSLObject obj : new TSLObject[] { a, b })
+    {
+      List<TSLObject> items = obj.getObjectList("item");
+      int i;
+      for(i = 0; i < items.size(); i++)
+      {
+        assertSame(kind, items.get(i).getString("kind", null));
+        assertSame(child, items.get(i).getObject("shared"));
+        if(i < 10)
+        {
+          // Equal items of both documents.
+          assertSame(a.getObjectList("item").get(i), items.get(i));
+        }
+      }
+    }
+    assertSame(a, loadCanonical(TSLTestData.write(document(shared, 10)), table));
+    assertSame(a, table.intern(document(shared, 10)));
+  }
+
+  @Test
+  public void droppedValuesAreCollected() throws Exception
+  {
+    Random random = new Random(26);
+    TSLInternTable table = new TSLInternTable();
+    List<TSLObject> documents = new ArrayList<TSLObject>();
+    int i;
+    for(i = 0; i < 20; i++)
+    {
+      documents.add(loadCanonical(TSLTestData.write(TSLTestData.randomObject(random, 3)), table));
+    }
+    assertTrue(table.getObjectCount() > 20);
+    assertTrue(table.getStringCount() > 0);
+    documents.clear();
+    int round;
+    for(round = 0; round < 100 && (table.getObjectCount() > 0 || table.getStringCount() > 0); round++)
+    {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, table.getObjectCount());
+    assertEquals(0, table.getStringCount());
+  }
+
+  @Test
+  public void concurrentLoadsShareTheSameInstances() throws Exception
+  {
+    final TSLInternTable table = new TSLInternTable();
+    final List<byte[]> data = new ArrayList<byte[]>();
+    Random random = new Random(27);
+    int i;
+    for(i = 0; i < 50; i++)
+    {
+      data.add(TSLTestData.write(TSLTestData.randomObject(random, 3)));
+    }
+    final AtomicReferenceArray<TSLObject> results = new AtomicReferenceArray<TSLObject>(data.size());
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] workers = new Thread[4];
+    for(i = 0; i < workers.length; i++)
+    {
+      workers[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            int round;
+            for(round = 0; round < 20; round++)
+            {
+              int j;
+              for(j = 0; j < data.size(); j++)
+              {
+                TSLObject obj = loadCanonical(data.get(j), table);
+                if(!results.compareAndSet(j, null, obj) && results.get(j) != obj)
+                {
+                  failures.incrementAndGet();
+                }
+              }
+            }
+          } catch(Throwable e)
+          {
+            failures.incrementAndGet();
+          }
+        }
+      };
+    }
+    for(Thread t : workers)
+    {
+      t.start();
+    }
+    for(Thread t : workers)
+    {
+      t.join();
+    }
+    assertEquals(0, failures.get());
+  }
+}
@@ -0,0 +1,88 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TSLNameTableTest
+{
+  // Get a name as a new char array, with padding around it.
+  static private char[] chars(String name)
+  {
+    char[] result = new char[name.length() + 4];
+    name.getChars(0, name.length(), result, 2);
+    return result;
+  }
+
+  @Test
+  public void namesReadFromADocumentShareOneInstance() throws Exception
+  {
+    TSLObject obj = new TSLObject();
+    int i;
+    for(i = 0; i < 100; i++)
+    {
+      TSLObject child = new TSLObject();
+      child.putString("name", String.valueOf(i));
+      child.putString("value" + (i % 3), String.valueOf(i));
+      obj.putObject("item", child);
+    }
+    TSLReader reader = new TSLReader(TSLTestData.write(obj));
+    TSLNameTable table = new TSLNameTable();
+    reader.setNameTable(table);
+    TSLObject result = TSLTestData.read(reader);
+    assertEquals(obj, result);
+    List<TSLObject> items = result.getObjectList("item");
+    String name = items.get(0).getValueName(0);
+    String value = items.get(0).getValueName(1);
+    for(TSLObject item : items)
+    {
+      assertSame(name, item.getValueName(0));
+      if(item.getValueName(1).equals(value))
+      {
+        assertSame(value, item.getValueName(1));
+      }
+    }
+    // root, item, name, value0, value1, value2.
+    assertEquals(6, table.size());
+  }
+
+  @Test
+  public void tableStopsGrowingAtItsLimit()
+  {
+    TSLNameTable table = new TSLNameTable();
+    assertEquals(4096, table.getMaxSize());
+    List<String> names = new ArrayList<String>();
+    int i;
+    for(i = 0; i < 5000; i++)
+    {
+      String name = "n" + i;
+      String str = table.get(chars(name), 2, name.length());
+      assertEquals(name, str);
+      names.add(str);
+    }
+    assertEquals(4096, table.size());
+    for(i = 0; i < 5000; i++)
+    {
+      String name = "n" + i;
+      String str = table.get(chars(name), 2, name.length());
+      assertEquals(name, str);
+      if(i < 4096)
+      {
+        assertSame(names.get(i), str);
+      } else
+      {
+        assertNotSame(names.get(i), str);
+      }
+    }
+    assertEquals(4096, table.size());
+    table.clear();
+    assertEquals(0, table.size());
+    String str = table.get(chars("n4999"), 2, 5);
+    assertSame(str, table.get(chars("n4999"), 2, 5));
+  }
+}
@@ -0,0 +1,334 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TSLObjectTest
+{
+  static private TSLReader reader(String tsl) throws InvalidTSLException, IOException
+  {
+    TSLReader reader = new TSLReader(new ByteArrayInputStream(tsl.getBytes("UTF-8")));
+    reader.moveNext();
+    return reader;
+  }
+
+  static private String document(int size)
+  {
+    StringBuilder builder = new StringBuilder("root [ ");
+    int i;
+    for(i = 0; i < size; i++)
+    {
+      builder.append("v").append(i).append(" \"").append(i).append("\", ");
+    }
+    builder.append("child [ name \"value\" ], last \"end\" ]");
+    return builder.toString();
+  }
+
+  // Run a task on several threads at once, returning the number of failed checks.
+  static private int runConcurrently(int threads, final Runnable task) throws InterruptedException
+  {
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] workers = new Thread[threads];
+    int i;
+    for(i = 0; i < threads; i++)
+    {
+      workers[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            task.run();
+          } catch(Throwable e)
+          {
+            failures.incrementAndGet();
+          }
+        }
+      };
+    }
+    for(Thread t : workers)
+    {
+      t.start();
+    }
+    for(Thread t : workers)
+    {
+      t.join();
+    }
+    return failures.get();
+  }
+
+  @Test
+  public void lazyObjectLoadsOnceForConcurrentReaders() throws Exception
+  {
+    String tsl = document(2000);
+    int round;
+    for(round = 0; round < 200; round++)
+    {
+      final TSLObject obj = TSLObject.loadLazy(reader(tsl));
+      int failures = runConcurrently(4, new Runnable()
+      {
+        public void run()
+        {
+          assertEquals("end", obj.getString("last", null));
+          assertEquals(1999, obj.getStringAsInt("v1999", -1));
+          assertNotNull(obj.getObject("child"));
+        }
+      });
+      assertEquals(0, failures);
+    }
+  }
+
+  @Test
+  public void lazyObjectEqualsLoadedObject() throws Exception
+  {
+    String tsl = document(100);
+    TSLObject lazy = TSLObject.loadLazy(reader(tsl));
+    TSLObject loaded = new TSLObject(reader(tsl));
+    assertEquals(loaded, lazy);
+    assertEquals("value", lazy.getObject("child").getString("name", null));
+  }
+
+  @Test
+  public void contentHashFollowsChangesToChildObjects() throws Exception
+  {
+    TSLObject child = new TSLObject();
+    child.putString("name", "value");
+    TSLObject obj = new TSLObject();
+    obj.putObject("child", child);
+    TSLObject frozen = obj.freeze();
+    long hash = obj.getContentHash();
+    assertEquals(hash, frozen.getContentHash());
+    child.putString("name", "changed");
+    assertNotEquals(hash, obj.getContentHash());
+    assertNotEquals(frozen, obj);
+    assertEquals(hash, frozen.getContentHash());
+    assertEquals(obj.getContentHash(), obj.freeze().getContentHash());
+  }
+
+  // Collect an object and its child objects.
+  static private void collect(TSLObject obj, List<TSLObject> result)
+  {
+    result.add(obj);
+    for(String name : obj.getObjectNames())
+    {
+      for(TSLObject child : obj.getObjectList(name))
+      {
+        collect(child, result);
+      }
+    }
+  }
+
+  @Test
+  public void cachedHashesFollowChangesAnywhereInTheTree() throws Exception
+  {
+    Random random = new Random(24);
+    TSLObject root = TSLTestData.randomObject(random, 4);
+    int round;
+    for(round = 0; round < 2000; round++)
+    {
+      List<TSLObject> objects = new ArrayList<TSLObject>();
+      collect(root, objects);
+      TSLObject target = objects.get(random.nextInt(objects.size()));
+      TSLObject other = objects.get(random.nextInt(objects.size()));
+      String name = TSLTestData.randomName(random);
+      switch(random.nextInt(5))
+      {
+        case 0:
+          target.putString(name, TSLTestData.randomString(random));
+          break;
+        case 1:
+          target.putObject(name, TSLTestData.randomObject(random, 2));
+          break;
+        case 2:
+          target.removeValues(name);
+          break;
+        case 3:
+          // Share an object in a second parent, unless it would contain itself.
+          List<TSLObject> inside = new ArrayList<TSLObject>();
+          collect(target, inside);
+          if(target != root && !inside.contains(other))
+          {
+            other.putObject(name, target);
+          }
+          break;
+        default:
+          if(target != root && random.nextInt(10) == 0)
+          {
+            target.clear();
+          }
+          break;
+      }
+      // A fresh copy hashes every value again.
+      assertEquals(root.toBuilder().getContentHash(), root.getContentHash());
+      assertEquals(root.getContentHash(), root.getContentHash());
+      if(objects.size() > 200)
+      {
+        root = TSLTestData.randomObject(random, 4);
+      }
+    }
+  }
+
+  @Test
+  public void removedObjectsNoLongerClearTheHash() throws Exception
+  {
+    TSLObject child = new TSLObject();
+    child.putString("name", "value");
+    TSLObject obj = new TSLObject();
+    obj.putObject("a", child);
+    obj.putObject("b", child);
+    TSLObject other = new TSLObject();
+    other.putObject("c", child);
+    long hash = obj.getContentHash();
+    other.getContentHash();
+    // Still contained under b.
+    obj.removeValues("a");
+    hash = obj.getContentHash();
+    child.putString("name", "changed");
+    assertNotEquals(hash, obj.getContentHash());
+    assertEquals(obj.toBuilder().getContentHash(), obj.getContentHash());
+    assertEquals(other.toBuilder().getContentHash(), other.getContentHash());
+    obj.removeValues("b");
+    hash = obj.getContentHash();
+    child.putString("name", "again");
+    assertEquals(hash, obj.getContentHash());
+    assertEquals(other.toBuilder().getContentHash(), other.getContentHash());
+  }
+
+  @Test
+  public void primitiveArraysSkipNullAndInvalidValues()
+  {
+    String[] values =
+    {
+      "1", null, "x", "", "-", "+", "-2147483648", "2147483647", "2147483648", "-9223372036854775808",
+      "9223372036854775807", "9223372036854775808", "1.5", "-1e3", "NaN", "+7", "0x10", " 3"
+    };
+    TSLObject obj = new TSLObject();
+    for(String value : values)
+    {
+      obj.putString("v", value);
+      obj.putObject("v", new TSLObject());
+      obj.putString("other", "5");
+    }
+    List<Integer> ints = obj.getStringAsIntegerList("v");
+    int[] int_array = obj.getStringAsIntArray("v");
+    assertEquals(ints.size(), int_array.length);
+    int i;
+    for(i = 0; i < int_array.length; i++)
+    {
+      assertEquals((int)ints.get(i), int_array[i]);
+    }
+    List<Long> longs = obj.getStringAsLongList("v");
+    long[] long_array = obj.getStringAsLongArray("v");
+    assertEquals(longs.size(), long_array.length);
+    for(i = 0; i < long_array.length; i++)
+    {
+      assertEquals((long)longs.get(i), long_array[i]);
+    }
+    List<Double> doubles = obj.getStringAsDoubleList("v");
+    double[] double_array = obj.getStringAsDoubleArray("v");
+    assertEquals(doubles.size(), double_array.length);
+    for(i = 0; i < double_array.length; i++)
+    {
+      assertEquals(doubles.get(i), double_array[i], 0);
+    }
+    assertArrayEquals(new int[] { 1, Integer.MIN_VALUE, Integer.MAX_VALUE, 7 }, int_array);
+    assertEquals(0, obj.getStringAsIntArray("missing").length);
+    TSLObject nulls = new TSLObject();
+    nulls.putString("v", (String)null);
+    assertEquals(2.5, nulls.getStringAsDouble("v", 2.5), 0);
+    assertEquals(0, nulls.getStringAsDoubleList("v").size());
+  }
+
+  @Test
+  public void putStringsReadBackAsArrays() throws Exception
+  {
+    int[] ints = { 0, -1, 42, Integer.MIN_VALUE, Integer.MAX_VALUE };
+    long[] longs = { 0, -1, 1L << 40, Long.MIN_VALUE, Long.MAX_VALUE };
+    double[] doubles = { 0, -0.5, 1.25, 1e300, Double.MIN_VALUE, -Double.MAX_VALUE };
+    TSLObject obj = new TSLObject();
+    obj.putString("i", "first");
+    obj.putStrings("i", ints);
+    obj.putStrings("l", longs);
+    obj.putStrings("d", doubles);
+    assertEquals(ints.length + 1, obj.getStringList("i").size());
+    assertEquals("first", obj.getString("i", null));
+    assertEquals(String.valueOf(Integer.MIN_VALUE), obj.getStringList("i").get(4));
+    byte[] text = TSLTestData.write(obj);
+    TSLObject[] objects =
+    {
+      obj,
+      TSLTestData.read(new TSLReader(new ByteArrayInputStream(text))),
+      TSLObject.loadUTF8(reader(new String(text, "UTF-8")), new TSLByteArena())
+    };
+    for(TSLObject o : objects)
+    {
+      assertArrayEquals(ints, o.getStringAsIntArray("i"));
+      assertArrayEquals(longs, o.getStringAsLongArray("l"));
+      assertArrayEquals(doubles, o.getStringAsDoubleArray("d"), 0);
+    }
+  }
+
+  // Field a frozen object is published through, without synchronization.
+  static private final class Holder
+  {
+    TSLObject obj;
+  }
+
+  @Test
+  public void frozenObjectsPublishedWithoutSynchronizationAreComplete() throws Exception
+  {
+    final Holder holder = new Holder();
+    final int rounds = 20000;
+    Thread writer = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        int round;
+        for(round = 0; round < rounds; round++)
+        {
+          TSLObject obj = new TSLObject();
+          int i;
+          for(i = 0; i < 20; i++)
+          {
+            obj.putString("v" + i, String.valueOf(i));
+          }
+          obj.putString("round", String.valueOf(round));
+          holder.obj = obj.freeze();
+        }
+      }
+    };
+    writer.start();
+    int failures = runConcurrently(2, new Runnable()
+    {
+      public void run()
+      {
+        int round;
+        for(round = 0; round < rounds; round++)
+        {
+          TSLObject obj = holder.obj;
+          if(obj != null)
+          {
+            assertEquals(21, obj.getStringNames().size());
+            assertEquals(19, obj.getStringAsInt("v19", -1));
+            assertEquals(obj.getContentHash(), obj.toBuilder().getContentHash());
+          }
+        }
+      }
+    });
+    writer.join();
+    assertEquals(0, failures);
+  }
+}
@@ -0,0 +1,145 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TSLParallelParserTest
+{
+  private File file;
+  private ExecutorService executor;
+
+  @Before
+  public void createFile() throws IOException
+  {
+    file = File.createTempFile("tsl", ".tsl");
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void deleteFile()
+  {
+    executor.shutdownNow();
+    file.delete();
+  }
+
+  // Parse a document in parallel, from after a prefix of other data in the file.
+  private TSLObject parseParallel(byte[] data, int prefix) throws InvalidTSLException, IOException
+  {
+    FileOutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(new byte[prefix]);
+      os.write(data);
+    } finally
+    {
+      os.close();
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try
+    {
+      FileChannel channel = raf.getChannel();
+      channel.position(prefix);
+      return TSLObject.parseParallel(channel, executor);
+    } finally
+    {
+      raf.close();
+    }
+  }
+
+  // Check that a document parses the same in parallel as sequentially, including the order of the values.
+  private void assertParsesTheSame(byte[] data, int prefix) throws Exception
+  {
+    TSLObject expected = TSLTestData.read(new TSLReader(data));
+    TSLObject actual = parseParallel(data, prefix);
+    assertEquals(expected, actual);
+    assertArrayEquals(TSLTestData.write(expected), TSLTestData.write(actual));
+  }
+
+  @Test
+  public void parallelParseMatchesTheSequentialReader() throws Exception
+  {
+    Random random = new Random(7);
+    int round;
+    for(round = 0; round < 50; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      assertParsesTheSame(TSLTestData.toText(obj, random), random.nextInt(3) * 100);
+    }
+  }
+
+  @Test
+  public void batchesSplitAcrossTheBatchSize() throws Exception
+  {
+    Random random = new Random(8);
+    TSLObject root = new TSLObject();
+    root.putString("first", "before any child");
+    long size = 0;
+    int i = 0;
+    // A few MB of children of varying size, with root strings between them.
+    while(size < 5 * 1024 * 1024)
+    {
+      TSLObject child = new TSLObject();
+      child.putString("index", i);
+      int n = random.nextInt(10) == 0 ? 20000 : random.nextInt(200);
+      int j;
+      for(j = 0; j < n; j++)
+      {
+        child.putString("v", TSLTestData.randomString(random));
+      }
+      if(random.nextInt(4) == 0)
+      {
+        child.putObject("nested", TSLTestData.randomObject(random, 2));
+      }
+      root.putObject(random.nextBoolean() ? "a" : "b", child);
+      if(random.nextInt(3) == 0)
+      {
+        root.putString(random.nextBoolean() ? "a" : "s", "between " + i);
+      }
+      size += 12 * n + 20;
+      i++;
+    }
+    root.putObject("empty", new TSLObject());
+    root.putString("last", "after every child");
+    byte[] data = TSLTestData.write(root);
+    assertTrue(data.length > 3 * 1024 * 1024);
+    assertParsesTheSame(data, 0);
+    assertParsesTheSame(data, 13);
+    TSLObject result = parseParallel(data, 0);
+    assertEquals(i, result.getObjectList("a").size() + result.getObjectList("b").size());
+  }
+
+  @Test
+  public void invalidChildObjectsAreRejected() throws Exception
+  {
+    StringBuilder tsl = new StringBuilder("root [ ");
+    int i;
+    for(i = 0; i < 100000; i++)
+    {
+      tsl.append("item [ value \"").append(i).append("\" ] ");
+    }
+    // Invalid within a child object, after the first batch.
+    tsl.append("item [ value \"x\" \"y\" ] ]");
+    try
+    {
+      parseParallel(tsl.toString().getBytes("UTF-8"), 0);
+      fail();
+    } catch(InvalidTSLException e)
+    {
+    }
+  }
+}
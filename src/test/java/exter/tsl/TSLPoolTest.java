@@ -0,0 +1,88 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TSLPoolTest
+{
+  @Test
+  public void pooledReadersAndWritersMatchNewOnes() throws Exception
+  {
+    Random random = new Random(15);
+    TSLPool pool = new TSLPool(2);
+    int round;
+    for(round = 0; round < 100; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] expected = TSLTestData.write(obj);
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      TSLWriter writer = pool.acquireWriter(os);
+      obj.write(writer, "root");
+      pool.releaseWriter(writer);
+      assertArrayEquals(expected, os.toByteArray());
+
+      TSLReader reader = pool.acquireReader(new ByteArrayInputStream(expected));
+      assertEquals(obj, TSLTestData.read(reader));
+      pool.releaseReader(reader);
+
+      // Release a reader in the middle of a document.
+      reader = pool.acquireReader(new ByteArrayInputStream(expected));
+      reader.moveNext();
+      reader.moveNext();
+      pool.releaseReader(reader);
+    }
+  }
+
+  @Test
+  public void poolKeepsAtMostTheIdleLimit() throws Exception
+  {
+    TSLPool pool = new TSLPool(3);
+    List<TSLWriter> writers = new ArrayList<TSLWriter>();
+    List<TSLReader> readers = new ArrayList<TSLReader>();
+    int i;
+    for(i = 0; i < 10; i++)
+    {
+      writers.add(pool.acquireWriter(new ByteArrayOutputStream()));
+      readers.add(pool.acquireReader(new ByteArrayInputStream(new byte[0])));
+    }
+    Map<Object, Boolean> released = new IdentityHashMap<Object, Boolean>();
+    for(i = 0; i < 10; i++)
+    {
+      pool.releaseWriter(writers.get(i));
+      pool.releaseReader(readers.get(i));
+      released.put(writers.get(i), Boolean.TRUE);
+      released.put(readers.get(i), Boolean.TRUE);
+    }
+    int reused_writers = 0;
+    int reused_readers = 0;
+    for(i = 0; i < 10; i++)
+    {
+      if(released.containsKey(pool.acquireWriter(new ByteArrayOutputStream())))
+      {
+        reused_writers++;
+      }
+      if(released.containsKey(pool.acquireReader(new ByteArrayInputStream(new byte[0]))))
+      {
+        reused_readers++;
+      }
+    }
+    assertEquals(3, reused_writers);
+    assertEquals(3, reused_readers);
+
+    // A released instance is the next one acquired.
+    TSLWriter writer = pool.acquireWriter(new ByteArrayOutputStream());
+    pool.releaseWriter(writer);
+    assertSame(writer, pool.acquireWriter(new ByteArrayOutputStream()));
+  }
+}
@@ -0,0 +1,134 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TSLPushParserTest
+{
+  // Records the values in the same form as TSLTestData.events().
+  static private final class EventHandler implements TSLHandler
+  {
+    final List<String> events = new ArrayList<String>();
+
+    public void putString(String name, String value)
+    {
+      events.add("string " + name + " " + value);
+    }
+
+    public void startObject(String name)
+    {
+      events.add("object " + name);
+    }
+
+    public void endObject()
+    {
+      events.add("end");
+    }
+  }
+
+  // Feed the input in random chunks of 1 to 5 bytes, alternating arrays and direct buffers.
+  static private List<String> push(byte[] data, Random random) throws Exception
+  {
+    EventHandler handler = new EventHandler();
+    TSLPushParser parser = new TSLPushParser(handler);
+    int pos = 0;
+    while(pos < data.length)
+    {
+      int n = Math.min(data.length - pos, 1 + random.nextInt(5));
+      if(random.nextBoolean())
+      {
+        parser.feed(data, pos, n);
+      } else
+      {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(n);
+        chunk.put(data, pos, n);
+        chunk.flip();
+        parser.feed(chunk);
+      }
+      pos += n;
+    }
+    parser.finish();
+    assertTrue(parser.isDone());
+    return handler.events;
+  }
+
+  @Test
+  public void chunkedInputReadsTheSameValuesAsTheReader() throws Exception
+  {
+    Random random = new Random(5);
+    int round;
+    for(round = 0; round < 300; round++)
+    {
+      byte[] data = TSLTestData.toText(TSLTestData.randomObject(random, 4), random);
+      assertEquals(TSLTestData.events(new TSLReader(data)), push(data, random));
+    }
+  }
+
+  @Test
+  public void malformedUTF8IsDecodedAsTheReaderDoes() throws Exception
+  {
+    byte[][] sequences =
+    {
+      { (byte)0xE0, 'x' },
+      { (byte)0xF0, (byte)0x9F, (byte)0x98 },
+      { (byte)0xC0, (byte)0x80 },
+      { (byte)0x80, (byte)0xBF },
+      { (byte)0xED, (byte)0xA0, (byte)0x80 },
+      { (byte)0xF0, (byte)0x9F, (byte)0x98, (byte)0x80 },
+      { (byte)0xFF }
+    };
+    Random random = new Random(6);
+    int round;
+    for(round = 0; round < 200; round++)
+    {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      os.write("root [ a \"".getBytes("UTF-8"));
+      int i;
+      for(i = 0; i < 5; i++)
+      {
+        byte[] sequence = sequences[random.nextInt(sequences.length)];
+        os.write(sequence, 0, sequence.length);
+      }
+      os.write("\" ]".getBytes("UTF-8"));
+      byte[] data = os.toByteArray();
+      assertEquals(TSLTestData.events(new TSLReader(data)), push(data, random));
+    }
+  }
+
+  @Test
+  public void invalidDocumentsAreRejected() throws Exception
+  {
+    Random random = new Random(7);
+    for(String tsl : TSLTestData.INVALID)
+    {
+      try
+      {
+        push(tsl.getBytes("UTF-8"), random);
+        fail("Parsed invalid TSL: " + tsl);
+      } catch(InvalidTSLException e)
+      {
+      }
+    }
+  }
+
+  @Test
+  public void inputAfterTheRootIsIgnored() throws Exception
+  {
+    EventHandler handler = new EventHandler();
+    TSLPushParser parser = new TSLPushParser(handler);
+    byte[] data = "root [ a \"b\" ] trailing [".getBytes("UTF-8");
+    parser.feed(data, 0, data.length);
+    assertTrue(parser.isDone());
+    parser.finish();
+    assertEquals(3, handler.events.size());
+  }
+}
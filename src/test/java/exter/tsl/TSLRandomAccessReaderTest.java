@@ -0,0 +1,223 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TSLRandomAccessReaderTest
+{
+  private File file;
+  private File index;
+
+  @Before
+  public void createFiles() throws IOException
+  {
+    file = File.createTempFile("tsl", ".tsl");
+    index = File.createTempFile("tsl", ".idx");
+  }
+
+  @After
+  public void deleteFiles()
+  {
+    file.delete();
+    index.delete();
+  }
+
+  private TSLObject writeFile(Random random) throws IOException
+  {
+    TSLObject obj = new TSLObject();
+    int i;
+    for(i = 0; i < 20; i++)
+    {
+      obj.putObject(TSLTestData.randomName(random), TSLTestData.randomObject(random, 3));
+    }
+    FileOutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(TSLTestData.write(obj));
+    } finally
+    {
+      os.close();
+    }
+    return obj;
+  }
+
+  // Overwrite a byte of the file, keeping its size and modification time.
+  private void changeByte(long position) throws IOException
+  {
+    long modified = file.lastModified();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try
+    {
+      raf.seek(position);
+      int b = raf.read();
+      raf.seek(position);
+      raf.write(b == ' ' ? '\t' : ' ');
+    } finally
+    {
+      raf.close();
+    }
+    file.setLastModified(modified);
+  }
+
+  private void assertIndexRejected() throws InvalidTSLException
+  {
+    try
+    {
+      new TSLRandomAccessReader(file, index).close();
+      fail("Opened a stale TSL index.");
+    } catch(IOException e)
+    {
+    }
+  }
+
+  @Test
+  public void indexedObjectsReadBackEqual() throws Exception
+  {
+    TSLObject obj = writeFile(new Random(14));
+    TSLIndexBuilder.build(file, index, true);
+    TSLRandomAccessReader reader = new TSLRandomAccessReader(file, index);
+    try
+    {
+      for(String name : obj.getObjectNames())
+      {
+        assertEquals(obj.getObjectList(name), reader.getObjectList(name));
+      }
+    } finally
+    {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void indexIsRejectedWhenTheFileChangesSize() throws Exception
+  {
+    writeFile(new Random(15));
+    TSLIndexBuilder.build(file, index, false);
+    FileOutputStream os = new FileOutputStream(file, true);
+    try
+    {
+      os.write(' ');
+    } finally
+    {
+      os.close();
+    }
+    assertIndexRejected();
+  }
+
+  @Test
+  public void indexIsRejectedWhenTheFileChangesWithinTheTimestamp() throws Exception
+  {
+    writeFile(new Random(16));
+    TSLIndexBuilder.build(file, index, false);
+    changeByte(file.length() - 1);
+    assertIndexRejected();
+  }
+
+  @Test
+  public void indexIsRejectedWhenTheModificationTimeChanges() throws Exception
+  {
+    writeFile(new Random(17));
+    TSLIndexBuilder.build(file, index, false);
+    file.setLastModified(file.lastModified() - 10000);
+    assertIndexRejected();
+  }
+
+  // Write a file of many small objects, larger than the checksummed start and end.
+  private byte[] writeItems(int count) throws IOException
+  {
+    StringBuilder builder = new StringBuilder("root [\n");
+    int i;
+    for(i = 0; i < count; i++)
+    {
+      builder.append("  item").append(i).append(" [ v \"value").append(i).append("\" ],\n");
+    }
+    builder.append("  last \"end\"\n]\n");
+    byte[] data = builder.toString().getBytes("UTF-8");
+    FileOutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(data);
+    } finally
+    {
+      os.close();
+    }
+    return data;
+  }
+
+  // Find the position of a string in the file's bytes.
+  static private int find(byte[] data, String text) throws IOException
+  {
+    byte[] pattern = text.getBytes("UTF-8");
+    int i;
+    for(i = 0; i + pattern.length <= data.length; i++)
+    {
+      int j = 0;
+      while(j < pattern.length && data[i + j] == pattern[j])
+      {
+        j++;
+      }
+      if(j == pattern.length)
+      {
+        return i;
+      }
+    }
+    throw new AssertionError("Not found: " + text);
+  }
+
+  @Test
+  public void regionsMovedWithinTheFileAreRejected() throws Exception
+  {
+    byte[] data = writeItems(10000);
+    TSLIndexBuilder.build(file, index, false);
+    long modified = file.lastModified();
+    // Move the middle items by 2 bytes, keeping the file's size.
+    int a = find(data, "\"value5000\"");
+    int b = find(data, "\"value5001\"");
+    byte[] edited = new byte[data.length];
+    System.arraycopy(data, 0, edited, 0, a);
+    System.arraycopy("\"value50\"".getBytes("UTF-8"), 0, edited, a, 9);
+    System.arraycopy(data, a + 11, edited, a + 9, b - (a + 11));
+    System.arraycopy("\"value5001xx\"".getBytes("UTF-8"), 0, edited, b - 2, 13);
+    System.arraycopy(data, b + 11, edited, b + 11, data.length - (b + 11));
+    // The file is only compared with the index by its size, time and the checksum of its ends.
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try
+    {
+      raf.write(edited);
+    } finally
+    {
+      raf.close();
+    }
+    file.setLastModified(modified);
+    TSLRandomAccessReader reader = new TSLRandomAccessReader(file, index);
+    try
+    {
+      assertEquals("value4999", reader.getObject("item4999").getString("v", null));
+      assertEquals("value5002", reader.getObject("item5002").getString("v", null));
+      int i;
+      for(i = 5000; i <= 5001; i++)
+      {
+        try
+        {
+          reader.getObject("item" + i);
+          fail("Read a moved region.");
+        } catch(InvalidTSLException e)
+        {
+        }
+      }
+    } finally
+    {
+      reader.close();
+    }
+  }
+}
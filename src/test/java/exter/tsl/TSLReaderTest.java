@@ -0,0 +1,290 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TSLReaderTest
+{
+  private File file;
+  private List<FileChannel> channels;
+
+  @Before
+  public void createFile() throws IOException
+  {
+    file = File.createTempFile("tsl", ".tsl");
+    channels = new ArrayList<FileChannel>();
+  }
+
+  @After
+  public void deleteFile() throws IOException
+  {
+    for(FileChannel channel : channels)
+    {
+      channel.close();
+    }
+    file.delete();
+  }
+
+  // Create readers over every kind of input, all reading the same document.
+  private List<TSLReader> readers(byte[] data, Random random) throws IOException
+  {
+    List<TSLReader> result = new ArrayList<TSLReader>();
+    result.add(new TSLReader(new ByteArrayInputStream(data)));
+    result.add(new TSLReader(new TSLTestData.ChunkedInputStream(data, random, 5)));
+    result.add(new TSLReader(data));
+    byte[] padded = new byte[data.length + 20];
+    System.arraycopy(data, 0, padded, 7, data.length);
+    result.add(new TSLReader(padded, 7, data.length));
+    result.add(TSLReader.createIndexed(padded, 7, data.length));
+    result.add(new TSLReader(ByteBuffer.wrap(data)));
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.flip();
+    result.add(new TSLReader(direct));
+    FileOutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(padded);
+    } finally
+    {
+      os.close();
+    }
+    FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    channels.add(channel);
+    result.add(new TSLReader(channel, 7, data.length));
+    return result;
+  }
+
+  @Test
+  public void allInputsReadTheSameValues() throws Exception
+  {
+    Random random = new Random(1);
+    int round;
+    for(round = 0; round < 300; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] data = TSLTestData.toText(obj, random);
+      List<String> expected = null;
+      for(TSLReader reader : readers(data, random))
+      {
+        List<String> events = TSLTestData.events(reader);
+        if(expected == null)
+        {
+          expected = events;
+        } else
+        {
+          assertEquals(expected, events);
+        }
+      }
+      assertEquals(obj, TSLTestData.read(new TSLReader(data)));
+    }
+  }
+
+  // Values parsed by the reader's number getters, in and around their bounds.
+  static private final String[] NUMBERS =
+  {
+    "0", "-0", "+0", "7", "-7", "+7", "0012", "2147483647", "-2147483648", "2147483648", "-2147483649",
+    "9223372036854775807", "-9223372036854775808", "9223372036854775808", "-9223372036854775809",
+    "99999999999999999999", "", "-", "+", "--1", "+-1", " 1", "1 ", "1_000", "0x10", "1.0",
+    "\u0661\u0662", "-\u0661\u0662", "\u0661\u0662\u0663\u0664\u0665\u0666\u0667\u0668\u0669\u0660", "\uff11",
+    "0.1", "-0.0", ".5", "5.", "1e22", "1e23", "-1.5e-3", "123456789012345678", "9007199254740993",
+    "4.9e-324", "1.7976931348623157e308", "1e309", "1e", "1e+", "Infinity", "NaN", "0x1p3", "1d", "\u00e9"
+  };
+
+  @Test
+  public void numberGettersMatchTheStringParsers() throws Exception
+  {
+    TSLObject obj = new TSLObject();
+    for(String value : NUMBERS)
+    {
+      obj.putString("v", value);
+    }
+    TSLReader reader = new TSLReader(TSLTestData.write(obj));
+    reader.moveNext();
+    int i = 0;
+    for(reader.moveNext(); reader.getState() == TSLReader.State.STRING; reader.moveNext())
+    {
+      String value = NUMBERS[i++];
+      assertEquals(value, reader.getValueChars().toString());
+      assertEquals(value, reader.getString());
+      // Null if the value is not valid, Double compares the bits.
+      Integer expected_int = null;
+      Integer actual_int = null;
+      Long expected_long = null;
+      Long actual_long = null;
+      Double expected_double = null;
+      Double actual_double = null;
+      try
+      {
+        expected_int = Integer.parseInt(value);
+      } catch(NumberFormatException e)
+      {
+      }
+      try
+      {
+        actual_int = reader.getInt();
+      } catch(NumberFormatException e)
+      {
+      }
+      try
+      {
+        expected_long = Long.parseLong(value);
+      } catch(NumberFormatException e)
+      {
+      }
+      try
+      {
+        actual_long = reader.getLong();
+      } catch(NumberFormatException e)
+      {
+      }
+      try
+      {
+        expected_double = Double.parseDouble(value);
+      } catch(NumberFormatException e)
+      {
+      }
+      try
+      {
+        actual_double = reader.getDouble();
+      } catch(NumberFormatException e)
+      {
+      }
+      assertEquals(value, expected_int, actual_int);
+      assertEquals(value, expected_long, actual_long);
+      assertEquals(value, expected_double, actual_double);
+    }
+    assertEquals(NUMBERS.length, i);
+    assertEquals(TSLReader.State.ENDOBJECT, reader.getState());
+    assertEquals(null, reader.getValueChars());
+  }
+
+  @Test
+  public void doubleGetterMatchesDoubleParseDouble() throws Exception
+  {
+    Random random = new Random(4);
+    TSLObject obj = new TSLObject();
+    List<String> values = new ArrayList<String>();
+    int i;
+    for(i = 0; i < 20000; i++)
+    {
+      StringBuilder value = new StringBuilder();
+      if(random.nextBoolean())
+      {
+        value.append('-');
+      }
+      value.append(random.nextInt(1 << random.nextInt(31)));
+      if(random.nextBoolean())
+      {
+        value.append('.');
+        int digits = random.nextInt(19);
+        int j;
+        for(j = 0; j < digits; j++)
+        {
+          value.append((char)('0' + random.nextInt(10)));
+        }
+      }
+      if(random.nextInt(4) == 0)
+      {
+        value.append('e').append(random.nextInt(60) - 30);
+      }
+      values.add(value.toString());
+      obj.putString("v", value.toString());
+    }
+    TSLReader reader = new TSLReader(TSLTestData.write(obj));
+    reader.moveNext();
+    i = 0;
+    for(reader.moveNext(); reader.getState() == TSLReader.State.STRING; reader.moveNext())
+    {
+      String value = values.get(i++);
+      assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(reader.getDouble()));
+    }
+    assertEquals(values.size(), i);
+  }
+
+  @Test
+  public void allInputsRejectInvalidDocuments() throws Exception
+  {
+    Random random = new Random(2);
+    for(String tsl : TSLTestData.INVALID)
+    {
+      String expected = null;
+      for(TSLReader reader : readers(tsl.getBytes("UTF-8"), random))
+      {
+        try
+        {
+          TSLTestData.events(reader);
+          fail("Read invalid TSL: " + tsl);
+        } catch(InvalidTSLException e)
+        {
+          if(expected == null)
+          {
+            expected = e.getMessage();
+          } else
+          {
+            assertEquals(tsl, expected, e.getMessage());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void writtenTextReadsBackEqual() throws Exception
+  {
+    Random random = new Random(3);
+    int round;
+    for(round = 0; round < 300; round++)
+    {
+      TSLObject obj = TSLTestData.randomObject(random, 4);
+      byte[] data = TSLTestData.write(obj);
+      assertEquals(obj, TSLTestData.read(new TSLReader(new ByteArrayInputStream(data))));
+      // Writing the read object gives the same text.
+      assertArrayEquals(data, TSLTestData.write(TSLTestData.read(new TSLReader(data))));
+    }
+  }
+
+  @Test
+  public void skippedObjectsResumeAtTheNextValue() throws Exception
+  {
+    Random random = new Random(4);
+    int round;
+    for(round = 0; round < 100; round++)
+    {
+      TSLObject obj = new TSLObject();
+      TSLObject next = new TSLObject();
+      next.putString("after", TSLTestData.randomString(random));
+      obj.putObject("skipped", TSLTestData.randomObject(random, 3));
+      obj.putObject("next", next);
+      byte[] data = TSLTestData.toText(obj, random);
+      for(TSLReader reader : readers(data, random))
+      {
+        reader.moveNext();
+        reader.moveNext();
+        assertEquals("skipped", reader.getName());
+        reader.skipObject();
+        assertEquals(TSLReader.State.ENDOBJECT, reader.getState());
+        reader.moveNext();
+        assertEquals("next", reader.getName());
+        reader.moveNext();
+        assertEquals(next.getString("after", null), reader.getString());
+      }
+    }
+  }
+}
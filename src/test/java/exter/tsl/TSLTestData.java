@@ -0,0 +1,214 @@
+package exter.tsl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random TSL documents and helpers shared by the tests.
+ */
+final class TSLTestData
+{
+  static private final String[] NAMES =
+  {
+    "a", "name", "x1", "long_name-2", "\u00e9t\u00e9", "\u540d\u524d"
+  };
+
+  static private final String[] FRAGMENTS =
+  {
+    "", "value", " ", "quote \" here", "back\\slash", "\\\"", "\u00fcnic\u00f6de", "\u4e2d\u6587",
+    "\ud83d\ude00", "123", "-4.5e6", "tab\tand\nnewline", "[not, an] object"
+  };
+
+  static private final String[] WHITESPACE =
+  {
+    "", " ", "\n", "\t", "  \r\n "
+  };
+
+  /**
+   * Documents that every reader must reject.
+   */
+  static final String[] INVALID =
+  {
+    "root [ a \"b\"",
+    "root [ a \"b\" c \"d\" ]",
+    "root [ a \"\\x\" ]",
+    "root [ a* \"b\" ]",
+    "root [ a b ]",
+    "root [ a \"b\", ]x",
+    "root [ a [ b \"c\" ]",
+    "root [ a \"\u00e9"
+  };
+
+  private TSLTestData()
+  {
+  }
+
+  static String randomString(Random random)
+  {
+    StringBuilder builder = new StringBuilder();
+    int n = random.nextInt(4);
+    int i;
+    for(i = 0; i < n; i++)
+    {
+      builder.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+    }
+    return builder.toString();
+  }
+
+  static String randomName(Random random)
+  {
+    return NAMES[random.nextInt(NAMES.length)];
+  }
+
+  /**
+   * Create a random object, never empty since empty objects are not written.
+   */
+  static TSLObject randomObject(Random random, int depth)
+  {
+    TSLObject obj = new TSLObject();
+    int n = 1 + random.nextInt(6);
+    int i;
+    for(i = 0; i < n; i++)
+    {
+      if(depth > 0 && random.nextInt(3) == 0)
+      {
+        obj.putObject(randomName(random), randomObject(random, depth - 1));
+      } else
+      {
+        obj.putString(randomName(random), randomString(random));
+      }
+    }
+    return obj;
+  }
+
+  static private String escape(String value)
+  {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  static private void appendText(StringBuilder builder, TSLObject obj, String name, Random random)
+  {
+    String space = WHITESPACE[random.nextInt(WHITESPACE.length)];
+    builder.append(space).append(name).append(space).append('[');
+    boolean first = true;
+    for(String n : obj.getStringNames())
+    {
+      for(String value : obj.getStringList(n))
+      {
+        builder.append(first ? "" : ",").append(space).append(n).append(random.nextBoolean() ? " " : "");
+        builder.append('"').append(escape(value)).append('"').append(space);
+        first = false;
+      }
+    }
+    for(String n : obj.getObjectNames())
+    {
+      for(TSLObject child : obj.getObjectList(n))
+      {
+        builder.append(first ? "" : ",");
+        appendText(builder, child, n, random);
+        first = false;
+      }
+    }
+    builder.append(space).append(']');
+  }
+
+  /**
+   * Write an object as TSL text with random whitespace between the values.
+   */
+  static byte[] toText(TSLObject obj, Random random) throws IOException
+  {
+    StringBuilder builder = new StringBuilder();
+    appendText(builder, obj, "root", random);
+    builder.append(WHITESPACE[random.nextInt(WHITESPACE.length)]);
+    return builder.toString().getBytes("UTF-8");
+  }
+
+  /**
+   * Write an object with a TSLWriter.
+   */
+  static byte[] write(TSLObject obj) throws IOException
+  {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    obj.write(new TSLWriter(os), "root");
+    return os.toByteArray();
+  }
+
+  /**
+   * Read the root object from a reader.
+   */
+  static TSLObject read(TSLReader reader) throws InvalidTSLException, IOException
+  {
+    reader.moveNext();
+    return new TSLObject(reader);
+  }
+
+  /**
+   * Record the values read by a reader, one entry per value, until the end of the root object.
+   */
+  static List<String> events(TSLReader reader) throws InvalidTSLException, IOException
+  {
+    List<String> result = new ArrayList<String>();
+    reader.moveNext();
+    while(reader.getState() != TSLReader.State.END)
+    {
+      switch(reader.getState())
+      {
+        case STRING:
+          result.add("string " + reader.getName() + " " + reader.getString());
+          break;
+        case OBJECT:
+          result.add("object " + reader.getName());
+          break;
+        case ENDOBJECT:
+          result.add("end");
+          break;
+        default:
+          break;
+      }
+      reader.moveNext();
+    }
+    return result;
+  }
+
+  /**
+   * Input stream that returns at most a few bytes per read, to split the input at every position.
+   */
+  static final class ChunkedInputStream extends InputStream
+  {
+    private final byte[] data;
+    private final Random random;
+    private final int max_chunk;
+    private int pos;
+
+    ChunkedInputStream(byte[] data, Random random, int max_chunk)
+    {
+      this.data = data;
+      this.random = random;
+      this.max_chunk = max_chunk;
+      pos = 0;
+    }
+
+    @Override
+    public int read()
+    {
+      return pos < data.length ? data[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+      if(pos == data.length)
+      {
+        return -1;
+      }
+      int n = Math.min(Math.min(len, data.length - pos), 1 + random.nextInt(max_chunk));
+      System.arraycopy(data, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+  }
+}
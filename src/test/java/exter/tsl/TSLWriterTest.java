@@ -0,0 +1,211 @@
+package exter.tsl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TSLWriterTest
+{
+  /**
+   * Gathering channel that writes at most a few bytes of each buffer per call, recording the calls.
+   */
+  static private final class PartialChannel implements GatheringByteChannel
+  {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final Random random;
+    int gathering_writes = 0;
+    int max_buffers = 0;
+
+    PartialChannel(Random random)
+    {
+      this.random = random;
+    }
+
+    public int write(ByteBuffer src)
+    {
+      int n = Math.min(src.remaining(), 1 + random.nextInt(5000));
+      int i;
+      for(i = 0; i < n; i++)
+      {
+        output.write(src.get());
+      }
+      return n;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+      gathering_writes++;
+      max_buffers = Math.max(max_buffers, length);
+      long total = 0;
+      int i;
+      for(i = offset; i < offset + length && random.nextInt(4) != 0; i++)
+      {
+        total += write(srcs[i]);
+        if(srcs[i].hasRemaining())
+        {
+          break;
+        }
+      }
+      return total;
+    }
+
+    public long write(ByteBuffer[] srcs)
+    {
+      return write(srcs, 0, srcs.length);
+    }
+
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    public void close()
+    {
+    }
+  }
+
+  // Create an object large enough to fill the channel writer's queue of output buffers several times.
+  static private TSLObject largeObject(Random random)
+  {
+    TSLObject obj = new TSLObject();
+    int i;
+    for(i = 0; i < 1000; i++)
+    {
+      obj.putObject("child", TSLTestData.randomObject(random, 4));
+      obj.putString("s", TSLTestData.randomString(random));
+    }
+    return obj;
+  }
+
+  @Test
+  public void channelTargetsWriteTheSameBytes() throws Exception
+  {
+    Random random = new Random(11);
+    int round;
+    for(round = 0; round < 20; round++)
+    {
+      TSLObject obj = round == 0 ? largeObject(random) : TSLTestData.randomObject(random, 4);
+      byte[] expected = TSLTestData.write(obj);
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      obj.write(new TSLWriter(Channels.newChannel(os)), "root");
+      assertArrayEquals(expected, os.toByteArray());
+
+      PartialChannel channel = new PartialChannel(random);
+      obj.write(new TSLWriter(channel), "root");
+      assertArrayEquals(expected, channel.output.toByteArray());
+      if(round == 0)
+      {
+        assertEquals(16, channel.max_buffers);
+        assertTrue(channel.gathering_writes > 2);
+      }
+    }
+  }
+
+  @Test
+  public void byteBufferTargetsWriteTheSameBytes() throws Exception
+  {
+    Random random = new Random(12);
+    int round;
+    for(round = 0; round < 20; round++)
+    {
+      TSLObject obj = round == 0 ? largeObject(random) : TSLTestData.randomObject(random, 4);
+      byte[] expected = TSLTestData.write(obj);
+      ByteBuffer[] buffers = { ByteBuffer.allocate(expected.length + 10), ByteBuffer.allocateDirect(expected.length + 10) };
+      for(ByteBuffer buffer : buffers)
+      {
+        buffer.position(3);
+        obj.write(new TSLWriter(buffer), "root");
+        assertEquals(expected.length + 3, buffer.position());
+        byte[] actual = new byte[expected.length];
+        buffer.position(3);
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void bufferOverflowClosesTheWriter() throws Exception
+  {
+    Random random = new Random(13);
+    TSLObject obj = largeObject(random);
+    byte[] expected = TSLTestData.write(obj);
+    int[] sizes = { 0, 100, 8192, 20000, expected.length - 1 };
+    for(int size : sizes)
+    {
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+      TSLWriter writer = new TSLWriter(buffer);
+      try
+      {
+        obj.write(writer, "root");
+        fail();
+      } catch(BufferOverflowException e)
+      {
+      }
+      try
+      {
+        writer.putString("a", "b");
+        fail();
+      } catch(IllegalStateException e)
+      {
+      }
+      // The writer can be reused once it's reset.
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      writer.reset(os);
+      obj.write(writer, "root");
+      assertArrayEquals(expected, os.toByteArray());
+    }
+  }
+
+  // Write a document with the writer's own formatter as well as the object's.
+  static private void writeDocument(TSLWriter writer, TSLObject obj) throws IOException
+  {
+    writer.startObject("root");
+    writer.putString("first", "1");
+    obj.write(writer, "child");
+    writer.startObject("last");
+    writer.putString("value", "2");
+    writer.endObject();
+    writer.endObject();
+  }
+
+  @Test
+  public void resetWritersWriteTheSameBytesAsNewOnes() throws Exception
+  {
+    Random random = new Random(14);
+    TSLWriter writer = new TSLWriter(Channels.newChannel(new ByteArrayOutputStream()));
+    int round;
+    for(round = 0; round < 50; round++)
+    {
+      TSLObject obj = round == 0 ? largeObject(random) : TSLTestData.randomObject(random, 4);
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      writeDocument(new TSLWriter(expected), obj);
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      writer.reset(os);
+      writeDocument(writer, obj);
+      assertArrayEquals(expected.toByteArray(), os.toByteArray());
+
+      // Leave the writer in the middle of an object, with a changed formatter.
+      writer.reset(new ByteArrayOutputStream());
+      writer.getFormatter().setIndent(random.nextInt(5));
+      writer.getFormatter().setNewLine(random.nextBoolean());
+      writer.pushFormatter().getFormatter().setIndent(random.nextInt(5));
+      writer.startObject("unfinished");
+      writer.putString("value", TSLTestData.randomString(random));
+      writer.pushFormatter();
+      writer.startObject("nested");
+    }
+  }
+}